@@ -33,6 +33,7 @@ android {
 
 dependencies {
 
+    implementation(project(":core"))
     implementation(libs.appcompat)
     implementation(libs.material)
     implementation(libs.activity)
@@ -43,5 +44,6 @@ dependencies {
     implementation(libs.pytorch.android.torchvision)
     implementation(libs.pytorch.android)
     testImplementation ("org.robolectric:robolectric:4.12.1")
+    testImplementation ("org.mockito:mockito-core:5.11.0")
 
 }
\ No newline at end of file
@@ -38,6 +38,11 @@ public interface CaptureImage {
      */
     void launchGalleryPicker();
 
+    /**
+     * Initiates an intent to select a video or time-lapse from the device's gallery.
+     */
+    void launchVideoPicker();
+
     /**
      * Resizes and crops the given Bitmap image to a specified size and aspect ratio, typically
      * used to prepare images for model inference.
@@ -47,13 +52,24 @@ public interface CaptureImage {
      */
     Bitmap resizeAndCropImage(Bitmap original);
 
+    /**
+     * Resizes and crops the given Bitmap image to a square of the given size, so the input
+     * resolution can be chosen at runtime.
+     *
+     * @param original the original Bitmap image to be processed.
+     * @param size     the width and height of the result, in pixels.
+     * @return a resized and cropped Bitmap image.
+     */
+    Bitmap resizeAndCropImage(Bitmap original, int size);
+
     /**
      * Runs inference on a given Bitmap image using the preloaded model and processes the output
      * to generate predictions.
      *
      * @param bitmap the Bitmap image on which inference is to be performed
+     * @return the raw scores from the model output, or null if inference couldn't run
      */
-    void runInference(Bitmap bitmap);
+    float[] runInference(Bitmap bitmap);
 
     /**
      * Applies the Softmax function to the raw output scores from the model to convert them
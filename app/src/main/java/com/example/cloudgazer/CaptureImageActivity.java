@@ -2,12 +2,18 @@ package com.example.cloudgazer;
 
 import android.Manifest;
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.BatteryManager;
 import android.os.Bundle;
+import android.os.PowerManager;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.util.Log;
+import android.util.Size;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.Toast;
@@ -20,6 +26,7 @@ import androidx.viewpager2.widget.ViewPager2;
 
 import org.pytorch.IValue;
 import org.pytorch.Module;
+import org.pytorch.PyTorchAndroid;
 import org.pytorch.Tensor;
 import org.pytorch.torchvision.TensorImageUtils;
 
@@ -27,13 +34,14 @@ import java.io.IOException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * CaptureImageActivity is the central component of the Cloud Gazer Android application.
@@ -51,9 +59,42 @@ public class CaptureImageActivity extends AppCompatActivity implements CaptureIm
     private static final int REQUEST_CAMERA_PERMISSION = 101;
     private static final int REQUEST_IMAGE_CAPTURE = 1;
     private static final int REQUEST_IMAGE_PICK = 2;
+    private static final int REQUEST_VIDEO_PICK = 3;
+    private static final int DOWNGRADED_DISPLAY_SIZE = 112;
+    private static final int THUMBNAIL_SIZE = 256;
+    private static final int DEFAULT_INPUT_SIZE = 224;
+    private static final int RESULT_COUNT = 3;
+    private static final String MODEL_FILE = "model.ptl";
+    private static final String CANDIDATE_MODEL_FILE = "candidate.ptl";
+    private static final float SHADOW_SAMPLE_RATE = 0.1f;
+    private static final int SHADOW_MIN_SAMPLES = 50;
+    private static final float SHADOW_MIN_AGREEMENT = 0.9f;
+    // Recording is opt-in, e.g. adb shell am start -n com.example.cloudgazer/.CaptureImageActivity --ez record_traces true
+    static final String EXTRA_RECORD_TRACES = "record_traces";
+    private static final String TRACE_FILE = "inference.trace";
+    private static final long TRACE_MAX_BYTES = 64L * 1024 * 1024;
+    private static final long VIDEO_SAMPLE_INTERVAL_MS = 1000;
+    private static final int VIDEO_FRAME_SIZE = 320;
+    private static final int VIDEO_QUEUE_CAPACITY = 8;
+    private static final int TIMELINE_THUMBNAIL_SIZE = 160;
 
     private ImageView imageView;
-    private Module model;
+    private ResultsPagerAdapter resultsAdapter;
+    private Bitmap displayedBitmap;
+    private ResourceManager resourceManager;
+    private ShadowEvaluator shadowEvaluator;
+    private ThermalGovernor thermalGovernor;
+    private volatile TraceRecorder traceRecorder;
+    // Writes the trace to disk off the main thread when the activity stops or is destroyed.
+    private final ExecutorService traceWriter = Executors.newSingleThreadExecutor();
+    private final SkyFilter skyFilter = new SkyFilter(SkyFilter.DEFAULT_THRESHOLD);
+    private volatile int baseInputSize = DEFAULT_INPUT_SIZE;
+    private volatile int inputSize = DEFAULT_INPUT_SIZE;
+    // Incremented on the main thread for every image or video the user asks for; background work
+    // started for an older request checks it and drops its images and results.
+    private volatile int displayRequest;
+    // The thread classifying the current video, if any; only touched on the main thread.
+    private Thread videoThread;
 
     /**
      * Initializes the activity with required UI components and permissions.
@@ -70,10 +111,61 @@ public class CaptureImageActivity extends AppCompatActivity implements CaptureIm
         ViewPager2 viewPagerResults = findViewById(R.id.viewPagerResults);
         Button takePhotoButton = findViewById(R.id.button_take_photo);
         Button chooseFromGalleryButton = findViewById(R.id.button_choose_from_gallery);
+        Button chooseVideoButton = findViewById(R.id.button_choose_video);
         imageView = findViewById(R.id.imageView);
 
+        // One adapter for the lifetime of the activity; results are applied to it as range updates.
+        resultsAdapter = new ResultsPagerAdapter(new String[0], new String[0]);
+        viewPagerResults.setAdapter(resultsAdapter);
+
+        // Give the caches an eighth of the memory class, the usual share for in-memory caches.
+        ActivityManager activityManager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        int cacheBudgetBytes = activityManager.getMemoryClass() * 1024 * 1024 / 8;
+        resourceManager = new ResourceManager(this::loadActiveModel, cacheBudgetBytes);
+        resourceManager.setDisplayDowngrader(() -> runOnUiThread(this::downgradeDisplayedImage));
+
+        // A model dropped into app storage as candidate.ptl, with its candidate.json sidecar, is
+        // evaluated against the active one and replaces it once it agrees often enough, without
+        // shipping a new APK.
+        shadowEvaluator = new ShadowEvaluator(resourceManager,
+                new File(getFilesDir(), CANDIDATE_MODEL_FILE), new File(getFilesDir(), MODEL_FILE),
+                SHADOW_SAMPLE_RATE, SHADOW_MIN_SAMPLES, SHADOW_MIN_AGREEMENT);
+        // The promoted model comes with its own manifest, which may ask for another input size.
+        shadowEvaluator.setPromotionListener(() -> {
+            ResourceManager.LoadedModel promoted = resourceManager.getLoadedModel();
+            if (promoted != null) {
+                applyManifest(promoted.getManifest());
+            }
+        });
+
+        // Step the input size and thread count down while the device is hot or low on battery.
+        PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
+        BatteryManager batteryManager = (BatteryManager) getSystemService(BATTERY_SERVICE);
+        thermalGovernor = new ThermalGovernor(powerManager::getCurrentThermalStatus,
+                new ThermalGovernor.BatterySource() {
+                    @Override
+                    public int getLevelPercent() {
+                        return batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY);
+                    }
+
+                    @Override
+                    public boolean isCharging() {
+                        return batteryManager.isCharging();
+                    }
+                }, this::applyTier);
+        applyTier(thermalGovernor.update());
+
+        if (getIntent().getBooleanExtra(EXTRA_RECORD_TRACES, false)) {
+            File traceDir = getExternalFilesDir(null) != null ? getExternalFilesDir(null) : getFilesDir();
+            try {
+                traceRecorder = new TraceRecorder(new File(traceDir, TRACE_FILE), TRACE_MAX_BYTES);
+            } catch (IOException e) {
+                Log.e("CaptureImageActivity", "Couldn't open inference trace", e);
+            }
+        }
 
         loadModel();
+        shadowEvaluator.loadCandidate();
 
         checkCameraPermission();
 
@@ -86,6 +178,10 @@ public class CaptureImageActivity extends AppCompatActivity implements CaptureIm
         chooseFromGalleryButton.setOnClickListener(v -> {
             launchGalleryPicker();
         });
+
+        chooseVideoButton.setOnClickListener(v -> {
+            launchVideoPicker();
+        });
     }
 
     /**
@@ -95,16 +191,165 @@ public class CaptureImageActivity extends AppCompatActivity implements CaptureIm
     public void loadModel() {
         new Thread(() -> {
             try {
-                model = Module.load(assetFilePath("model.ptl"));
+                applyManifest(resourceManager.getModel().getManifest());
             } catch (Exception e) {
-                Toast.makeText(this, "Model couldn't be loaded", Toast.LENGTH_SHORT).show();
-                finish();
+                runOnUiThread(() -> {
+                    Toast.makeText(this, "Model couldn't be loaded", Toast.LENGTH_SHORT).show();
+                    finish();
+                });
             }
         }).start();
     }
 
+    /**
+     * Loads the model together with the manifest read from its sidecar. The resource manager
+     * calls this whenever the model isn't resident, so both always come from the same files.
+     *
+     * @return the model and its manifest
+     * @throws Exception if the model or its sidecar couldn't be read
+     */
+    private ResourceManager.LoadedModel loadActiveModel() throws Exception {
+        ModelManifest parsed = ModelManifest.load(new File(assetFilePath(ModelManifest.sidecarName(MODEL_FILE))));
+        if (parsed.getDescriptionsFile() != null) {
+            assetFilePath(parsed.getDescriptionsFile().getName());
+        }
+        return new ResourceManager.LoadedModel(Module.load(assetFilePath(MODEL_FILE)), parsed);
+    }
+
+    /**
+     * Returns the active model and its manifest, loading them if they were unloaded under memory
+     * pressure. A request reads this snapshot once and uses it for the forward pass, the labels
+     * and caching, so a model promoted meanwhile is never mixed into it.
+     *
+     * @return the model snapshot, or null if the model couldn't be loaded
+     */
+    private ResourceManager.LoadedModel activeModel() {
+        try {
+            ResourceManager.LoadedModel active = resourceManager.getModel();
+            applyManifest(active.getManifest());
+            return active;
+        } catch (Exception e) {
+            runOnUiThread(() -> Toast.makeText(this, "Model couldn't be loaded", Toast.LENGTH_SHORT).show());
+            return null;
+        }
+    }
+
+    /**
+     * Preprocesses later images for the input size the given manifest asks for.
+     *
+     * @param modelManifest the manifest of the active model
+     */
+    private void applyManifest(ModelManifest modelManifest) {
+        if (modelManifest.getInputSize() != baseInputSize) {
+            baseInputSize = modelManifest.getInputSize();
+            applyTier(thermalGovernor.getTier());
+        }
+    }
+
+    /**
+     * Writes buffered trace records to disk, since the app may be killed while in the background.
+     * The write happens on the trace writer thread so it doesn't delay the main thread.
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+        TraceRecorder recorder = traceRecorder;
+        if (recorder != null) {
+            traceWriter.execute(() -> {
+                try {
+                    recorder.flush();
+                } catch (IOException e) {
+                    Log.e("CaptureImageActivity", "Couldn't write inference trace", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Closes the trace, if one is being recorded, cancels the video being classified and stops
+     * shadow evaluation so background threads and the candidate model don't outlive the activity.
+     * The trace is closed on the trace writer thread after any flush still queued there.
+     */
+    @Override
+    protected void onDestroy() {
+        traceWriter.execute(this::closeTraceRecorder);
+        traceWriter.shutdown();
+        cancelVideo();
+        shadowEvaluator.shutdown();
+        resultsAdapter.release();
+        super.onDestroy();
+    }
+
+    /**
+     * Forwards memory pressure signals to the resource manager and the shadow evaluator so caches,
+     * the displayed image and the models are released before the system has to kill the app.
+     *
+     * @param level the memory-related event that was raised
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (resourceManager != null) {
+            resourceManager.onTrimMemory(level);
+        }
+        if (shadowEvaluator != null) {
+            shadowEvaluator.onTrimMemory(level);
+        }
+    }
+
+    /**
+     * Called when the whole system is running low on memory.
+     */
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        if (resourceManager != null) {
+            resourceManager.onLowMemory();
+        }
+        if (shadowEvaluator != null) {
+            shadowEvaluator.onLowMemory();
+        }
+    }
+
+    /**
+     * Applies the inference settings chosen by the thermal governor.
+     *
+     * @param tier the settings to use from now on
+     */
+    private void applyTier(ThermalGovernor.Tier tier) {
+        inputSize = tier.inputSizeFor(baseInputSize);
+        PyTorchAndroid.setNumThreads(tier.threads);
+    }
+
+    /**
+     * Shows the given image and remembers it so it can be downgraded under memory pressure.
+     *
+     * @param bitmap the image to display
+     */
+    private void showImage(Bitmap bitmap) {
+        displayedBitmap = bitmap;
+        imageView.setImageBitmap(bitmap);
+    }
+
+    /**
+     * Replaces the displayed image with a low-resolution copy to free its pixel memory.
+     */
+    private void downgradeDisplayedImage() {
+        Bitmap current = displayedBitmap;
+        if (current == null || Math.max(current.getWidth(), current.getHeight()) <= DOWNGRADED_DISPLAY_SIZE) {
+            return;
+        }
+        float scale = (float) DOWNGRADED_DISPLAY_SIZE / Math.max(current.getWidth(), current.getHeight());
+        showImage(Bitmap.createScaledBitmap(current,
+                Math.max(1, (int) (current.getWidth() * scale)), Math.max(1, (int) (current.getHeight() * scale)), true));
+    }
+
     /**
      * Retrieves the file path of an asset required by the application, particularly the ML model.
+     * The asset is copied to app storage if it isn't there yet, or again if the APK was installed
+     * or updated after the copy was made, so an update shipping a new model, manifest or
+     * descriptions blob replaces the stale copies. The copy is written to a temporary file first
+     * so an interrupted copy never leaves a truncated file behind.
      *
      * @param assetName the name of the asset
      * @return the file path of the asset
@@ -113,8 +358,9 @@ public class CaptureImageActivity extends AppCompatActivity implements CaptureIm
     @Override
     public String assetFilePath(String assetName) throws Exception {
         File file = new File(getFilesDir(), assetName);
-        if (!file.exists()) {
-            try (InputStream is = getAssets().open(assetName); FileOutputStream os = new FileOutputStream(file)) {
+        if (needsCopy(file, apkUpdateTime())) {
+            File partial = new File(getFilesDir(), assetName + ".tmp");
+            try (InputStream is = getAssets().open(assetName); FileOutputStream os = new FileOutputStream(partial)) {
                 byte[] buffer = new byte[4 * 1024];
                 int read;
                 while ((read = is.read(buffer)) != -1) {
@@ -122,12 +368,41 @@ public class CaptureImageActivity extends AppCompatActivity implements CaptureIm
                 }
                 os.flush();
             } catch (IOException e) {
+                // Files that aren't assets, such as those of a promoted model, are kept as they are.
                 Log.e("CaptureImageActivity", "Error processing asset " + assetName + " to file path");
+                partial.delete();
+            }
+            if (partial.exists() && !partial.renameTo(file)) {
+                Log.e("CaptureImageActivity", "Couldn't replace " + assetName + " with the copy of the asset");
             }
         }
         return file.getAbsolutePath();
     }
 
+    /**
+     * Decides whether an asset has to be copied to app storage.
+     *
+     * @param file          the copy of the asset in app storage
+     * @param apkUpdateTime when the APK was last installed or updated, in milliseconds since the epoch
+     * @return true if there is no copy yet or it predates the APK
+     */
+    static boolean needsCopy(File file, long apkUpdateTime) {
+        return !file.exists() || file.lastModified() < apkUpdateTime;
+    }
+
+    /**
+     * Returns when the APK was last installed or updated.
+     *
+     * @return the update time in milliseconds since the epoch, or 0 if it is unknown
+     */
+    private long apkUpdateTime() {
+        try {
+            return getPackageManager().getPackageInfo(getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
     /**
      * Checks if the application has the necessary permissions to use the camera and requests
      * permissions if not already granted.
@@ -160,6 +435,16 @@ public class CaptureImageActivity extends AppCompatActivity implements CaptureIm
         startActivityForResult(pickPhotoIntent, REQUEST_IMAGE_PICK);
     }
 
+    /**
+     * Initiates an intent to select a video or time-lapse from the device's gallery.
+     */
+    @Override
+    public void launchVideoPicker() {
+        Intent pickVideoIntent = new Intent(Intent.ACTION_PICK);
+        pickVideoIntent.setType("video/*");
+        startActivityForResult(pickVideoIntent, REQUEST_VIDEO_PICK);
+    }
+
     /**
      * Handles the results from requesting permissions.
      *
@@ -184,25 +469,38 @@ public class CaptureImageActivity extends AppCompatActivity implements CaptureIm
     }
 
     /**
-     * Resizes and crops the given Bitmap image to a specified size and aspect ratio, typically
-     * used to prepare images for model inference.
+     * Resizes and crops the given Bitmap image to the input size currently chosen by the thermal
+     * governor, typically used to prepare images for model inference.
      *
      * @param original the original Bitmap image to be processed
-     * @return a new bitmap image resized and cropped to 224x224 pixels
+     * @return a new bitmap image resized and cropped to the current input size, 224x224 pixels
+     * unless the device is being throttled
      */
     @Override
     public Bitmap resizeAndCropImage(Bitmap original) {
+        return resizeAndCropImage(original, inputSize);
+    }
+
+    /**
+     * Resizes and crops the given Bitmap image to a square of the given size.
+     *
+     * @param original the original Bitmap image to be processed
+     * @param size     the width and height of the result, in pixels
+     * @return a new bitmap image resized and cropped to size x size pixels
+     */
+    @Override
+    public Bitmap resizeAndCropImage(Bitmap original, int size) {
         int width = original.getWidth();
         int height = original.getHeight();
-        float scale = 224.0f / Math.min(width, height);
+        float scale = (float) size / Math.min(width, height);
         Bitmap scaledBitmap = Bitmap.createScaledBitmap(original,
-                (int) (width * scale), (int) (height * scale), true);
+                Math.max(size, Math.round(width * scale)), Math.max(size, Math.round(height * scale)), true);
 
-        // CenterCrop 224x224
-        int xStart = (scaledBitmap.getWidth() - 224) / 2;
-        int yStart = (scaledBitmap.getHeight() - 224) / 2;
+        // CenterCrop size x size
+        int xStart = (scaledBitmap.getWidth() - size) / 2;
+        int yStart = (scaledBitmap.getHeight() - size) / 2;
 
-        return Bitmap.createBitmap(scaledBitmap, xStart, yStart, 224, 224);
+        return Bitmap.createBitmap(scaledBitmap, xStart, yStart, size, size);
     }
 
     /**
@@ -220,182 +518,634 @@ public class CaptureImageActivity extends AppCompatActivity implements CaptureIm
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
         if (resultCode == Activity.RESULT_OK) {
+            // A new request replaces the video being classified, if any.
+            cancelVideo();
+            thermalGovernor.update();
             Bitmap imageBitmap = null;
             switch (requestCode) {
                 case REQUEST_IMAGE_CAPTURE:
                     Bundle extras = data.getExtras();
                     if (extras != null) {
                         imageBitmap = (Bitmap) extras.get("data");
-                        imageView.setImageBitmap(imageBitmap);
                     }
                     break;
                 case REQUEST_IMAGE_PICK:
-                    try {
-                        imageBitmap = MediaStore.Images.Media.getBitmap(this.getContentResolver(), data.getData());
-                        imageView.setImageBitmap(imageBitmap);
-                    } catch (IOException e) {
-                        Toast.makeText(this, "Failed to read image from gallery.", Toast.LENGTH_SHORT).show();
-                    }
-                    break;
+                    classifyPickedImage(data.getData());
+                    return;
+                case REQUEST_VIDEO_PICK:
+                    classifyVideo(data.getData());
+                    return;
             }
             if (imageBitmap != null) {
+                final int request = ++displayRequest;
                 Bitmap processedImage = resizeAndCropImage(imageBitmap);
-                imageView.setImageBitmap(processedImage);
-                runInference(processedImage);
+                showImage(processedImage);
+                final long start = SystemClock.elapsedRealtime();
+                // The model may have been unloaded under memory pressure, so inference runs off
+                // the main thread where reloading it can't block the UI.
+                startInference(() -> {
+                    warnIfNotSky(processedImage);
+                    if (runInference(processedImage, request) != null) {
+                        // The capture thumbnail is the only image, so the first result is also the final one.
+                        Log.i("CaptureImageActivity", "Time to first and final result: " + (SystemClock.elapsedRealtime() - start) + " ms");
+                    }
+                });
             }
         }
     }
 
+    /**
+     * Classifies an image picked from the gallery in two passes. The first pass runs on the
+     * MediaStore thumbnail and publishes a tentative result almost immediately; the second pass
+     * runs on the fully decoded image and replaces the cloud type result only if the ranking
+     * changed. The pages of the other heads are always refreshed from the second pass.
+     *
+     * @param imageUri the uri of the picked image
+     */
+    private void classifyPickedImage(Uri imageUri) {
+        final int request = ++displayRequest;
+        final String cacheKey = imageUri.toString();
+        Bitmap cachedImage = resourceManager.getBitmap(cacheKey);
+        ResourceManager.LoadedModel loaded = resourceManager.getLoadedModel();
+        Map<String, float[]> cachedOutputs = loaded == null ? null : getCachedOutputs(cacheKey, loaded);
+        if (cachedImage != null && cachedOutputs != null) {
+            // The same image was classified recently by the active model; reuse the result.
+            showImage(cachedImage);
+            processInferenceResults(cachedOutputs, loaded.getManifest(), request);
+            return;
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        startInference(() -> {
+            int[] previewRanking = null;
+            float[] previewScores = null;
+            ResourceManager.LoadedModel previewModel = null;
+            boolean skyChecked = false;
+            try {
+                Bitmap thumbnail = getContentResolver().loadThumbnail(imageUri,
+                        new Size(THUMBNAIL_SIZE, THUMBNAIL_SIZE), null);
+                Bitmap processedThumbnail = resizeAndCropImage(thumbnail);
+                showImage(processedThumbnail, request);
+                warnIfNotSky(processedThumbnail);
+                skyChecked = true;
+                previewModel = activeModel();
+                Map<String, float[]> previewOutputs = previewModel == null || !isCurrent(request)
+                        ? null : classify(processedThumbnail, previewModel);
+                if (previewOutputs != null) {
+                    ModelManifest previewManifest = previewModel.getManifest();
+                    processInferenceResults(previewOutputs, previewManifest, request);
+                    previewScores = previewOutputs.get(previewManifest.getPrimaryHead());
+                    previewRanking = Scores.topK(previewScores, RESULT_COUNT);
+                    Log.i("CaptureImageActivity", "Time to first result: " + (SystemClock.elapsedRealtime() - start) + " ms");
+                }
+            } catch (IOException e) {
+                // No thumbnail is available; the full decode below produces the only result.
+            }
+
+            if (!isCurrent(request)) {
+                // Another image was picked meanwhile; skip the full decode.
+                return;
+            }
+            Bitmap processedImage;
+            try {
+                processedImage = resizeAndCropImage(MediaStore.Images.Media.getBitmap(getContentResolver(), imageUri));
+            } catch (IOException e) {
+                runOnUiThread(() -> Toast.makeText(this, "Failed to read image from gallery.", Toast.LENGTH_SHORT).show());
+                return;
+            }
+            showImage(processedImage, request);
+            if (!skyChecked) {
+                warnIfNotSky(processedImage);
+            }
+            ResourceManager.LoadedModel active = activeModel();
+            Map<String, float[]> outputs = active == null ? null : classify(processedImage, active);
+            if (outputs == null) {
+                return;
+            }
+            float[] scores = outputs.get(active.getManifest().getPrimaryHead());
+            // A model promoted between the passes may order its labels differently
+            boolean rankingChanged = active != previewModel || replacesPreview(previewRanking, scores);
+            // The other heads always come from the full image, like the values cached below; only
+            // the genus pages keep the preview's probabilities while their ranking is unchanged.
+            processInferenceResults(rankingChanged ? outputs
+                    : withPreviewScores(outputs, previewScores, active.getManifest().getPrimaryHead()),
+                    active.getManifest(), request);
+            Log.i("CaptureImageActivity", "Time to final result: " + (SystemClock.elapsedRealtime() - start) + " ms"
+                    + (rankingChanged ? "" : ", preview ranking kept"));
+            resourceManager.putBitmap(cacheKey, processedImage);
+            cacheOutputs(cacheKey, outputs, active);
+        });
+    }
+
+    /**
+     * Decides whether the result of the full image replaces the preview result shown from the
+     * thumbnail. The preview is kept while the ranking shown to the user is the same, since only
+     * the probabilities would change.
+     *
+     * @param previewRanking the top classes shown from the thumbnail, or null if none was shown
+     * @param scores         the raw scores of the full image
+     * @return true if the full image's result should be shown
+     */
+    static boolean replacesPreview(int[] previewRanking, float[] scores) {
+        return previewRanking == null || !Arrays.equals(previewRanking, Scores.topK(scores, RESULT_COUNT));
+    }
+
+    /**
+     * Combines the genus scores shown from the thumbnail with the other heads of the full image,
+     * for when the preview ranking is kept.
+     *
+     * @param outputs       the raw values of each head of the full image
+     * @param previewScores the raw genus scores of the thumbnail
+     * @param primaryHead   the name of the genus head
+     * @return the outputs of the full image with the genus scores of the thumbnail
+     */
+    static Map<String, float[]> withPreviewScores(Map<String, float[]> outputs, float[] previewScores,
+                                                  String primaryHead) {
+        Map<String, float[]> combined = new LinkedHashMap<>(outputs);
+        combined.put(primaryHead, previewScores);
+        return combined;
+    }
+
+    /**
+     * Returns whether a request is still the latest one the user made.
+     *
+     * @param request the value of the request counter when the request was made
+     * @return false if the user has asked for another image or video since
+     */
+    private boolean isCurrent(int request) {
+        return request == displayRequest;
+    }
+
+    /**
+     * Shows an image on the main thread, unless the user has made another request meanwhile.
+     *
+     * @param bitmap  the image to display
+     * @param request the request the image belongs to
+     */
+    private void showImage(Bitmap bitmap, int request) {
+        runOnUiThread(() -> {
+            if (isCurrent(request)) {
+                showImage(bitmap);
+            }
+        });
+    }
+
+    /**
+     * Runs user-facing inference work on a new thread. The shadow evaluator is told about it
+     * from the moment it is queued until it ends, so shadow runs don't compete with it for
+     * PyTorch's shared thread pool.
+     *
+     * @param work the work to run
+     * @return the started thread
+     */
+    private Thread startInference(Runnable work) {
+        shadowEvaluator.onRequestStarted();
+        Thread thread = new Thread(() -> {
+            try {
+                work.run();
+            } finally {
+                shadowEvaluator.onRequestFinished();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Caches the outputs of every head of an image. The genus scores are stored under the image key
+     * itself and every other head under the key suffixed with the head name. Nothing is cached if
+     * the model that produced the outputs has been replaced in the meantime.
+     *
+     * @param cacheKey the key of the image
+     * @param outputs  the raw values of each head
+     * @param source   the model snapshot the outputs were produced with
+     */
+    private void cacheOutputs(String cacheKey, Map<String, float[]> outputs, ResourceManager.LoadedModel source) {
+        String primaryHead = source.getManifest().getPrimaryHead();
+        for (Map.Entry<String, float[]> head : outputs.entrySet()) {
+            if (!resourceManager.putResult(head.getKey().equals(primaryHead) ? cacheKey : cacheKey + "#" + head.getKey(),
+                    head.getValue(), source)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the cached outputs of an image, as stored by
+     * {@link #cacheOutputs(String, Map, ResourceManager.LoadedModel)}. Heads evicted separately
+     * from the genus scores are simply not shown.
+     *
+     * @param cacheKey the key of the image
+     * @param reader   the model snapshot the outputs will be displayed with
+     * @return the raw values of each cached head, or null if the genus scores aren't cached for
+     * this model
+     */
+    private Map<String, float[]> getCachedOutputs(String cacheKey, ResourceManager.LoadedModel reader) {
+        ModelManifest modelManifest = reader.getManifest();
+        float[] scores = resourceManager.getResult(cacheKey, reader);
+        if (scores == null) {
+            return null;
+        }
+        Map<String, float[]> outputs = new LinkedHashMap<>();
+        for (int i = 0; i < modelManifest.getHeadCount(); i++) {
+            String name = modelManifest.getHeadName(i);
+            float[] values = name.equals(modelManifest.getPrimaryHead())
+                    ? scores : resourceManager.getResult(cacheKey + "#" + name, reader);
+            if (values != null) {
+                outputs.put(name, values);
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * Runs the cheap sky pre-filter on a preprocessed image and warns the user when the image
+     * doesn't look like the sky. A single capture or pick is the user's explicit choice, so it is
+     * still classified and its result shown; skipping the forward pass outright is only worth the
+     * risk of a false reject when many images are processed in bulk, as the frames of a video are.
+     *
+     * @param bitmap the preprocessed image
+     */
+    private void warnIfNotSky(Bitmap bitmap) {
+        if (skyFilter.isSky(bitmap)) {
+            return;
+        }
+        Log.i("CaptureImageActivity", String.format("Sky filter flagged image, rejection rate %.1f%%",
+                skyFilter.getRejectionRate() * 100));
+        runOnUiThread(() -> Toast.makeText(this, "This doesn't look like a photo of the sky, results may be off.",
+                Toast.LENGTH_LONG).show());
+    }
+
     /**
      * Runs inference on a given Bitmap image using the preloaded model and processes the output
-     * to generate predictions.
+     * to generate predictions. The model is reloaded first if it was unloaded under memory
+     * pressure, so this should be called off the main thread.
      *
      * @param bitmap the Bitmap image on which inference is to be performed.
+     * @return the raw scores from the model output, or null if the model couldn't be loaded
      */
     @Override
-    public void runInference(Bitmap bitmap) {
-        if (model == null) {
-            Toast.makeText(this, "Model is not loaded yet", Toast.LENGTH_SHORT).show();
-            return;
+    public float[] runInference(Bitmap bitmap) {
+        return runInference(bitmap, displayRequest);
+    }
+
+    /**
+     * Runs inference on an image and displays the result, unless the user has made another
+     * request by the time it is ready.
+     *
+     * @param bitmap  the preprocessed image
+     * @param request the request the image belongs to
+     * @return the raw scores from the model output, or null if the model couldn't be loaded or
+     * the request was superseded before the model ran
+     */
+    private float[] runInference(Bitmap bitmap, int request) {
+        if (!isCurrent(request)) {
+            return null;
         }
+        final ResourceManager.LoadedModel active = activeModel();
+        final Map<String, float[]> outputs = active == null ? null : classify(bitmap, active);
+        if (outputs == null) {
+            return null;
+        }
+        processInferenceResults(outputs, active.getManifest(), request);
+        return outputs.get(active.getManifest().getPrimaryHead());
+    }
+
+    /**
+     * Runs the model on a given Bitmap image without displaying the result. Every head of the
+     * model comes out of the same forward pass.
+     *
+     * @param bitmap the preprocessed image
+     * @param active the model snapshot to run, as returned by {@link #activeModel()}
+     * @return the raw values of each head of the model output, keyed by head name, or null if
+     * the output has no genus scores
+     */
+    private Map<String, float[]> classify(Bitmap bitmap, ResourceManager.LoadedModel active) {
+        final Module model = active.getModule();
+        final ModelManifest modelManifest = active.getManifest();
 
         // Convert the image to a tensor
+        final long preprocessStart = SystemClock.elapsedRealtimeNanos();
         final Tensor inputTensor = TensorImageUtils.bitmapToFloat32Tensor(bitmap,
-                new float[]{0.485f, 0.456f, 0.406f}, // ImageNet mean
-                new float[]{0.229f, 0.224f, 0.225f}); // ImageNet std
+                modelManifest.getMean(), modelManifest.getStd());
 
         // Forward pass to get output tensor
-        final Tensor outputTensor = model.forward(IValue.from(inputTensor)).toTensor();
+        final long start = SystemClock.elapsedRealtimeNanos();
+        final IValue output = model.forward(IValue.from(inputTensor));
+        final long latencyNanos = SystemClock.elapsedRealtimeNanos() - start;
+        thermalGovernor.recordLatency(latencyNanos);
 
-        // Extract scores (model output)
-        final float[] scores = outputTensor.getDataAsFloatArray();
+        // Split the output into its heads; the genus scores drive ranking, caching and traces
+        final Map<String, float[]> outputs = OutputHeads.extract(output, modelManifest, null);
+        final float[] scores = outputs.get(modelManifest.getPrimaryHead());
+        if (scores == null) {
+            runOnUiThread(() -> Toast.makeText(this, "Model output has no cloud type", Toast.LENGTH_SHORT).show());
+            return null;
+        }
+
+        if (traceRecorder != null) {
+            Map<String, Long> stageNanos = new LinkedHashMap<>();
+            stageNanos.put(InferenceTrace.STAGE_PREPROCESS, start - preprocessStart);
+            stageNanos.put(InferenceTrace.STAGE_FORWARD, latencyNanos);
+            recordTrace(new InferenceTrace.Record(System.currentTimeMillis(), modelId(), stageNanos,
+                    inputTensor.shape(), inputTensor.getDataAsFloatArray(), scores));
+        }
 
-        // Process the results
-        processInferenceResults(scores);
+        // Compare against the candidate model, if any, once the user's inferences are done
+        shadowEvaluator.maybeShadow(bitmap, inputTensor, scores, latencyNanos, modelManifest);
+        return outputs;
     }
 
     /**
-     * Applies the Softmax function to the raw output scores from the model to convert them
-     * into probabilities, facilitating easier interpretation of results.
+     * Appends an inference to the trace. Recording stops for the rest of the session if the
+     * trace can't be written.
      *
-     * @param scores the raw scores from the model output
-     * @return an array of probabilities derived from the scores
+     * @param record the inference to record
      */
-    @Override
-    public float[] softmax(float[] scores) {
-        float[] expScores = new float[scores.length];
-        float sumExpScores = 0.0f;
-        for (int i = 0; i < scores.length; i++) {
-            expScores[i] = (float) Math.exp(scores[i]);
-            sumExpScores += expScores[i];
+    private void recordTrace(InferenceTrace.Record record) {
+        TraceRecorder recorder = traceRecorder;
+        if (recorder == null) {
+            return;
         }
-        for (int i = 0; i < scores.length; i++) {
-            expScores[i] = expScores[i] / sumExpScores;
+        try {
+            if (!recorder.record(record)) {
+                Log.i("CaptureImageActivity", "Inference trace reached its size cap, recording stopped");
+                closeTraceRecorder();
+            }
+        } catch (IOException e) {
+            Log.e("CaptureImageActivity", "Couldn't write inference trace", e);
+            closeTraceRecorder();
         }
-        return expScores;
     }
 
     /**
-     * Holds cloud type abbreviations mapped to their full names.
-     * This is used for display and reference throughout the application.
+     * Flushes and closes the trace, if one is being recorded.
      */
-    private static final Map<String, String> CLOUD_ABBREVIATIONS = new LinkedHashMap<>();
+    private synchronized void closeTraceRecorder() {
+        TraceRecorder recorder = traceRecorder;
+        traceRecorder = null;
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                Log.e("CaptureImageActivity", "Couldn't close inference trace", e);
+            }
+        }
+    }
 
-    static {
-        CLOUD_ABBREVIATIONS.put("Ci", "Cirrus");
-        CLOUD_ABBREVIATIONS.put("Cs", "Cirrostratus");
-        CLOUD_ABBREVIATIONS.put("Cc", "Cirrocumulus");
-        CLOUD_ABBREVIATIONS.put("Ac", "Altocumulus");
-        CLOUD_ABBREVIATIONS.put("As", "Altostratus");
-        CLOUD_ABBREVIATIONS.put("Cu", "Cumulus");
-        CLOUD_ABBREVIATIONS.put("Cb", "Cumulonimbus");
-        CLOUD_ABBREVIATIONS.put("Ns", "Nimbostratus");
-        CLOUD_ABBREVIATIONS.put("Sc", "Stratocumulus");
-        CLOUD_ABBREVIATIONS.put("St", "Stratus");
-        CLOUD_ABBREVIATIONS.put("Ct", "Contrail");
+    /**
+     * Identifies the active model in traces; changes whenever a candidate model is promoted.
+     *
+     * @return the model id
+     */
+    private String modelId() {
+        return MODEL_FILE + "@" + new File(getFilesDir(), MODEL_FILE).lastModified();
     }
 
     /**
-     * Provides detailed descriptions for each cloud type, indexed by an integer.
-     * The descriptions are used to provide informative output in the user interface.
+     * Samples frames from a video in the background and shows the cloud type found at each
+     * sampled timestamp. Pages are added to the results as each batch is classified, so long
+     * videos show their first results right away. The whole video is classified with the model
+     * that was active when it started, so its timeline uses one set of labels throughout.
+     *
+     * @param videoUri the uri of the selected video
      */
-    private static final Map<Integer, String> CLOUD_DESCRIPTIONS = new HashMap<>();
+    private void classifyVideo(Uri videoUri) {
+        final int request = ++displayRequest;
+        runOnUiThread(() -> Toast.makeText(this, "Classifying video...", Toast.LENGTH_SHORT).show());
+        videoThread = startInference(() -> {
+            try {
+                ResourceManager.LoadedModel active = activeModel();
+                if (active == null) {
+                    return;
+                }
+                // The governor is re-checked for every frame since a long video can heat the device.
+                VideoClassifier classifier = new VideoClassifier(frame -> {
+                    thermalGovernor.update();
+                    return resizeAndCropImage(frame);
+                }, batch -> runBatchInference(batch, active), thermalGovernor.getTier().batchSize, VIDEO_QUEUE_CAPACITY);
+                // A video is classified in bulk, so frames that don't show the sky skip the model
+                // instead of only being warned about; a wrongly rejected frame just has no page.
+                classifier.setFrameFilter(skyFilter::isSky);
+                TimelineResultSource timeline = new TimelineResultSource(active.getManifest(),
+                        openThumbnails(videoUri));
+                runOnUiThread(() -> {
+                    if (!isCurrent(request)) {
+                        timeline.release();
+                        return;
+                    }
+                    resultsAdapter.setSource(timeline);
+                    ViewPager2 viewPagerResults = findViewById(R.id.viewPagerResults);
+                    viewPagerResults.setCurrentItem(0, false);
+                });
+                classifier.classify(new VideoFrameSource(this, videoUri, VIDEO_SAMPLE_INTERVAL_MS, VIDEO_FRAME_SIZE),
+                        entries -> {
+                            timeline.append(entries);
+                            runOnUiThread(() -> resultsAdapter.notifyResultsAppended(timeline));
+                        });
+                int skipped = classifier.getSkippedFrameCount();
+                int filtered = classifier.getFilteredFrameCount();
+                if (filtered > 0) {
+                    long savedMs = classifier.getFilterSavingNanos() / 1_000_000;
+                    Log.i("CaptureImageActivity", String.format("Sky filter skipped %d video frames, saving %d ms of inference, rejection rate %.1f%%",
+                            filtered, savedMs, skyFilter.getRejectionRate() * 100));
+                    runOnUiThread(() -> Toast.makeText(this, filtered + " frames without sky were skipped, saving about "
+                            + savedMs + " ms", Toast.LENGTH_SHORT).show());
+                }
+                if (timeline.size() == 0 && filtered == 0) {
+                    runOnUiThread(() -> Toast.makeText(this, "No frames could be read from the video", Toast.LENGTH_SHORT).show());
+                } else if (skipped > 0) {
+                    Log.i("CaptureImageActivity", skipped + " video frames couldn't be read and were skipped");
+                    runOnUiThread(() -> Toast.makeText(this, skipped + " frames couldn't be read and were skipped",
+                            Toast.LENGTH_SHORT).show());
+                }
+            } catch (InterruptedException e) {
+                Log.i("CaptureImageActivity", "Video classification cancelled");
+            } catch (Exception e) {
+                Log.e("CaptureImageActivity", "Video classification failed", e);
+                runOnUiThread(() -> Toast.makeText(this, "Failed to classify video.", Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
 
-    static {
-        CLOUD_DESCRIPTIONS.put(0, "From Latin Altus, \"high\", cumulus, \"heaped\" \n\nAltocumulus is a middle-altitude cloud genus that belongs mainly to the stratocumuliform physical category characterized by globular masses or rolls in layers or patches, the individual elements being larger and darker than those of cirrocumulus and smaller than those of stratocumulus.");
-        CLOUD_DESCRIPTIONS.put(1, "Altostratus is a middle-altitude cloud genus made up of water droplets, ice crystals, or a mixture of the two. Altostratus clouds are usually gray or blueish featureless sheets, although some variants have wavy or banded bases.");
-        CLOUD_DESCRIPTIONS.put(2, "From Latin cumulus \"heaped\", and nimbus \"rainstorm\" \n\nCumulonimbus is a dense, towering vertical cloud, typically forming from water vapor condensing in the lower troposphere that builds upward carried by powerful buoyant air currents.");
-        CLOUD_DESCRIPTIONS.put(3, "Cirrocumulus clouds are made up of lots of small white clouds called cloudlets, which are usually grouped together at high levels. Composed almost entirely from ice crystals, the little cloudlets are regularly spaced, often arranged as ripples in the sky.");
-        CLOUD_DESCRIPTIONS.put(4, "Cirrus is a genus of high cloud made of ice crystals. Cirrus clouds typically appear delicate and wispy with white strands. Cirrus are usually formed when warm, dry air rises, causing water vapor deposition onto rocky or metallic dust particles at high altitudes. ");
-        CLOUD_DESCRIPTIONS.put(5, "Cirrostratus are transparent high clouds, which cover large areas of the sky. They sometimes produce white or coloured rings, spots or arcs of light around the Sun or Moon, that are known as halo phenomena.");
-        CLOUD_DESCRIPTIONS.put(6, "Contrails are clouds that form when water vapor condenses and freezes around small particles (aerosols) in aircraft exhaust.");
-        CLOUD_DESCRIPTIONS.put(7, "From the Latin cumulus, meaning \"heap\" or \"pile\" \n\nCumulus clouds are clouds that have flat bases and are often described as puffy, cotton-like, or fluffy in appearance.");
-        CLOUD_DESCRIPTIONS.put(8, "Nimbostratus are layered clouds with low bases that produce precipitation and are usually formed by advection. They are thick, dark gray with a ragged base, and are often associated with the passage of warm fronts.");
-        CLOUD_DESCRIPTIONS.put(9, "Stratocumulus clouds are low-level clumps or patches of cloud varying in colour from bright white to dark grey. They are the most common clouds on earth recognised by their well-defined bases, with some parts often darker than others. ");
-        CLOUD_DESCRIPTIONS.put(10, "Stratus clouds are low-level clouds characterized by horizontal layering with a uniform base, as opposed to convective or cumuliform clouds formed by rising thermals. The term stratus describes flat, hazy, featureless clouds at low altitudes varying in color from dark gray to nearly white.");
+    /**
+     * Stops classifying the current video, if any. Its decoder and forward passes stop after the
+     * batch in progress, and no more results are appended to its timeline.
+     */
+    private void cancelVideo() {
+        if (videoThread != null) {
+            videoThread.interrupt();
+            videoThread = null;
+        }
     }
 
     /**
-     * A sorted and indexed collection of cloud types, allowing for ordered access based on model output.
-     * The indices correspond to the sorted order of cloud type abbreviations.
+     * Opens a video a second time for decoding the thumbnails of timeline pages on demand.
+     *
+     * @param videoUri the uri of the video
+     * @return the thumbnail decoder, or null if the video couldn't be opened again
      */
-    private static final Map<Integer, String> CLOUD_TYPES = new HashMap<>();
+    private VideoFrameSource openThumbnails(Uri videoUri) {
+        try {
+            return new VideoFrameSource(this, videoUri, VIDEO_SAMPLE_INTERVAL_MS, TIMELINE_THUMBNAIL_SIZE);
+        } catch (IOException e) {
+            Log.e("CaptureImageActivity", "Timeline thumbnails unavailable", e);
+            return null;
+        }
+    }
 
-    static {
-        // Sort and index cloud type abbreviations for ordering purposes
-        List<String> sortedKeys = new ArrayList<>(CLOUD_ABBREVIATIONS.keySet());
-        Collections.sort(sortedKeys);
-        for (int i = 0; i < sortedKeys.size(); i++) {
-            String key = sortedKeys.get(i);
-            CLOUD_TYPES.put(i, CLOUD_ABBREVIATIONS.get(key));
+    /**
+     * Runs the model once on a batch of preprocessed images. When a trace is being recorded, each
+     * frame is recorded as its own single-image inference, with the batch's preprocessing and
+     * forward times split evenly between its frames, so the trace replays like captured images.
+     *
+     * @param batch  the preprocessed images, all of the same size
+     * @param active the model snapshot the video is classified with
+     * @return the raw scores of each image, in the order of the batch
+     */
+    private float[][] runBatchInference(List<Bitmap> batch, ResourceManager.LoadedModel active) {
+        ModelManifest modelManifest = active.getManifest();
+        Module model = active.getModule();
+        int width = batch.get(0).getWidth();
+        int height = batch.get(0).getHeight();
+        int imageSize = 3 * width * height;
+        FloatBuffer buffer = Tensor.allocateFloatBuffer(batch.size() * imageSize);
+        long preprocessStart = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < batch.size(); i++) {
+            Bitmap image = batch.get(i);
+            if (image.getWidth() != width || image.getHeight() != height) {
+                // The governor changed the input size while this batch was being decoded.
+                image = Bitmap.createScaledBitmap(image, width, height, true);
+            }
+            TensorImageUtils.bitmapToFloatBuffer(image, 0, 0, width, height,
+                    modelManifest.getMean(), modelManifest.getStd(), buffer, i * imageSize);
         }
+        Tensor inputTensor = Tensor.fromBlob(buffer, new long[]{batch.size(), 3, height, width});
+        long start = SystemClock.elapsedRealtimeNanos();
+        // The timeline shows only the cloud type, so the other heads are skipped
+        float[] output = OutputHeads.primary(model.forward(IValue.from(inputTensor)), modelManifest);
+        long frameLatencyNanos = (SystemClock.elapsedRealtimeNanos() - start) / batch.size();
+        thermalGovernor.recordLatency(frameLatencyNanos);
+        if (output == null) {
+            throw new IllegalStateException("Model output has no cloud type");
+        }
+
+        int numClasses = output.length / batch.size();
+        float[][] scores = new float[batch.size()][];
+        for (int i = 0; i < batch.size(); i++) {
+            scores[i] = Arrays.copyOfRange(output, i * numClasses, (i + 1) * numClasses);
+        }
+
+        if (traceRecorder != null) {
+            Map<String, Long> stageNanos = new LinkedHashMap<>();
+            stageNanos.put(InferenceTrace.STAGE_PREPROCESS, (start - preprocessStart) / batch.size());
+            stageNanos.put(InferenceTrace.STAGE_FORWARD, frameLatencyNanos);
+            long[] frameShape = {1, 3, height, width};
+            float[] input = inputTensor.getDataAsFloatArray();
+            long now = System.currentTimeMillis();
+            String id = modelId();
+            for (int i = 0; i < batch.size(); i++) {
+                recordTrace(new InferenceTrace.Record(now, id, stageNanos, frameShape,
+                        Arrays.copyOfRange(input, i * imageSize, (i + 1) * imageSize), scores[i]));
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Applies the Softmax function to the raw output scores from the model to convert them
+     * into probabilities, facilitating easier interpretation of results.
+     *
+     * @param scores the raw scores from the model output
+     * @return an array of probabilities derived from the scores
+     */
+    @Override
+    public float[] softmax(float[] scores) {
+        return Scores.softmax(scores);
     }
 
     /**
      * Processes inference results by converting raw scores to probabilities and sorting them to
-     * identify the most likely cloud types. the results are then displayed to the user.
+     * identify the most likely cloud types. the results are then displayed to the user, followed
+     * by one page for each other head of the model, such as precipitation likelihood. They are
+     * displayed only if the user hasn't made another request by the time they reach the main thread.
      *
-     * @param scores array of raw scores from the model inference
+     * @param outputs the raw values of each head from the model inference, keyed by head name
+     * @param labels  the manifest of the model that produced the outputs
+     * @param request the request the outputs belong to
      */
-    private void processInferenceResults(float[] scores) {
+    private void processInferenceResults(Map<String, float[]> outputs, ModelManifest labels, int request) {
+
+        float[] scores = outputs.get(labels.getPrimaryHead());
 
-        if (scores == null || scores.length < 3) {
-            Toast.makeText(this, "Not enough results to display", Toast.LENGTH_SHORT).show();
+        if (scores == null || scores.length < RESULT_COUNT) {
+            runOnUiThread(() -> Toast.makeText(this, "Not enough results to display", Toast.LENGTH_SHORT).show());
             return;
         }
 
         // Apply softmax to convert raw scores to probabilities
         float[] probabilities = softmax(scores);
 
-        // Create an array of indices to sort scores in descending order
-        Integer[] indices = new Integer[scores.length];
-        for (int i = 0; i < scores.length; i++) {
-            indices[i] = i;
-        }
-
-        // Sort indices based on the scores (in descending order)
-        Arrays.sort(indices, (a, b) -> Float.compare(scores[b], scores[a]));
+        // Indices of the top results, sorted by score in descending order
+        int[] indices = Scores.topK(scores, RESULT_COUNT);
 
         // Prepare the top 3 results for display
-        String[] results = new String[3];
-        String[] descriptions = new String[3];
-        for (int i = 0; i < 3; i++) {
+        List<String> resultPages = new ArrayList<>();
+        List<String> descriptionPages = new ArrayList<>();
+        for (int i = 0; i < RESULT_COUNT; i++) {
             int idx = indices[i];
-            String cloudType = CLOUD_TYPES.getOrDefault(idx, "Unknown Cloud Type");
-            String cloudDescription = CLOUD_DESCRIPTIONS.getOrDefault(idx, "No description available.");
+            String cloudType = labelName(labels, idx);
+            String cloudDescription = labelDescription(labels, idx);
             String probabilityPercent = String.format("%.2f", probabilities[idx] * 100) + "%";
-            results[i] = "Rank " + (i + 1) + "\nIt might be " + cloudType + " cloud( Probability  " + probabilityPercent + ")\n";
-            descriptions[i] = cloudDescription;
+            resultPages.add("Rank " + (i + 1) + "\nIt might be " + cloudType + " cloud( Probability  " + probabilityPercent + ")\n");
+            descriptionPages.add(cloudDescription);
+        }
+
+        // Then one page per weather head, routed to its post-processor by type
+        for (int i = 0; i < labels.getHeadCount(); i++) {
+            float[] values = outputs.get(labels.getHeadName(i));
+            String[] page = values == null || labels.getHeadName(i).equals(labels.getPrimaryHead())
+                    ? null : OutputHeads.format(labels.getHeadType(i), labels.getHeadTitle(i), values);
+            if (page != null) {
+                resultPages.add(page[0]);
+                descriptionPages.add(page[1]);
+            }
         }
+        String[] results = resultPages.toArray(new String[0]);
+        String[] descriptions = descriptionPages.toArray(new String[0]);
 
         // Update the ViewPager with the results on the main thread
         runOnUiThread(() -> {
+            if (!isCurrent(request)) {
+                return;
+            }
+            resultsAdapter.setResults(results, descriptions);
             ViewPager2 viewPagerResults = findViewById(R.id.viewPagerResults);
-            viewPagerResults.setAdapter(new ResultsPagerAdapter(results, descriptions));
+            viewPagerResults.setCurrentItem(0, false);
         });
     }
 
+    /**
+     * Returns the display name of a class from the manifest.
+     *
+     * @param labels the model manifest
+     * @param index  the index of the class in the model output
+     * @return the name of the cloud type
+     */
+    static String labelName(ModelManifest labels, int index) {
+        String name = labels == null ? null : labels.getLabelName(index);
+        return name != null ? name : "Unknown Cloud Type";
+    }
 
+    /**
+     * Returns the description of a class from the manifest.
+     *
+     * @param labels the model manifest
+     * @param index  the index of the class in the model output
+     * @return the description of the cloud type
+     */
+    static String labelDescription(ModelManifest labels, int index) {
+        String description = labels == null ? null : labels.getDescription(index);
+        return description != null ? description : "No description available.";
+    }
 }
-
-
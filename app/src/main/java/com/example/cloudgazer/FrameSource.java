@@ -0,0 +1,41 @@
+package com.example.cloudgazer;
+
+import android.graphics.Bitmap;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A source of timestamped frames, such as a sampled video or a time-lapse image sequence.
+ * Frames are produced one at a time so a long recording never has to be held in memory.
+ */
+public interface FrameSource extends Closeable {
+
+    /**
+     * Decodes the next sampled frame. If a frame can't be decoded, the source stays usable and
+     * the following call moves on to the frame after it.
+     *
+     * @return the next frame, or null when the source is exhausted
+     * @throws IOException if the frame couldn't be decoded
+     */
+    Frame next() throws IOException;
+
+    /**
+     * A decoded frame and the position it was taken from.
+     */
+    final class Frame {
+        public final long timestampMs;
+        public final Bitmap bitmap;
+
+        /**
+         * Constructor for the Frame.
+         *
+         * @param timestampMs position of the frame in the recording, in milliseconds
+         * @param bitmap      the decoded frame
+         */
+        public Frame(long timestampMs, Bitmap bitmap) {
+            this.timestampMs = timestampMs;
+            this.bitmap = bitmap;
+        }
+    }
+}
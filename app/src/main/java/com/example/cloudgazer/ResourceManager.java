@@ -0,0 +1,311 @@
+package com.example.cloudgazer;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+
+import org.pytorch.Module;
+
+import java.util.concurrent.Callable;
+
+/**
+ * ResourceManager is the single owner of the memory-heavy objects used by the Cloud Gazer app:
+ * the PyTorch model, a cache of preprocessed bitmaps and a cache of inference results.
+ * <p>
+ * The model is held together with the manifest describing it in one immutable
+ * {@link LoadedModel}, so a request that reads both from the same snapshot never preprocesses
+ * for one model and runs another, even while a new model is swapped in. Results are cached only
+ * if the model that produced them is still the active one, and swapping the model drops every
+ * cached result in the same step.
+ * <p>
+ * Both caches share one byte budget. The manager listens to the system memory callbacks and
+ * releases resources in increasing order of cost to rebuild: first the result and bitmap caches,
+ * then the displayed image is downgraded, and finally the model itself is unloaded. An unloaded
+ * model is reloaded lazily the next time {@link #getModel()} is called.
+ */
+public class ResourceManager implements ComponentCallbacks2 {
+    private static final String TAG = "ResourceManager";
+
+    private final Callable<LoadedModel> modelLoader;
+    private final LruCache<String, Bitmap> bitmapCache;
+    private final LruCache<String, float[]> resultCache;
+    // Serializes model loads. It is never taken by unloadModel() or swapModel(), so a memory
+    // callback on the main thread doesn't wait for a load that is reading the model from storage.
+    private final Object loadLock = new Object();
+    private volatile LoadedModel model;
+    // Incremented under the monitor of this manager every time the model is unloaded or replaced,
+    // so a load that was in flight at that moment doesn't reinstate the model it read.
+    private int modelGeneration;
+    private Runnable displayDowngrader;
+
+    /**
+     * Constructor for the ResourceManager.
+     *
+     * @param modelLoader       loads the model and its manifest from storage; called again after the
+     *                          model has been unloaded
+     * @param cacheBudgetBytes  total number of bytes the bitmap and result caches may hold together
+     */
+    public ResourceManager(Callable<LoadedModel> modelLoader, int cacheBudgetBytes) {
+        this.modelLoader = modelLoader;
+        // Results are tiny compared to bitmaps, so they only get a small slice of the budget.
+        int resultBudget = Math.max(1, cacheBudgetBytes / 16);
+        this.bitmapCache = new LruCache<String, Bitmap>(Math.max(1, cacheBudgetBytes - resultBudget)) {
+            @Override
+            protected int sizeOf(@NonNull String key, @NonNull Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+        this.resultCache = new LruCache<String, float[]>(resultBudget) {
+            @Override
+            protected int sizeOf(@NonNull String key, @NonNull float[] value) {
+                return value.length * Float.BYTES;
+            }
+        };
+    }
+
+    /**
+     * Returns the model and its manifest, loading them first if they are not resident. This may
+     * block while the model is read from storage, so it should not be called on the main thread.
+     * A request should read the model once and use the returned snapshot throughout.
+     * <p>
+     * Only one load runs at a time, but the load doesn't hold the lock that {@link #unloadModel()}
+     * and {@link #swapModel(LoadedModel)} use. If the model is swapped while a load is running, the
+     * swapped-in model is returned instead of the loaded one; if it is unloaded, the loaded model
+     * is returned to this caller but not kept resident.
+     *
+     * @return the loaded model
+     * @throws Exception if the model couldn't be loaded
+     */
+    public LoadedModel getModel() throws Exception {
+        LoadedModel current = model;
+        if (current != null) {
+            return current;
+        }
+        synchronized (loadLock) {
+            int generation;
+            synchronized (this) {
+                if (model != null) {
+                    return model;
+                }
+                generation = modelGeneration;
+            }
+            LoadedModel loaded = modelLoader.call();
+            synchronized (this) {
+                if (model != null) {
+                    return model;
+                }
+                if (generation == modelGeneration) {
+                    model = loaded;
+                    Log.i(TAG, "Model loaded");
+                }
+                return loaded;
+            }
+        }
+    }
+
+    /**
+     * Returns the model and its manifest if they are resident, without loading them.
+     *
+     * @return the loaded model, or null if it is not loaded
+     */
+    public LoadedModel getLoadedModel() {
+        return model;
+    }
+
+    /**
+     * Returns whether the model is currently resident in memory.
+     *
+     * @return true if the model is loaded
+     */
+    public boolean isModelLoaded() {
+        return model != null;
+    }
+
+    /**
+     * Releases the model. It will be reloaded on the next call to {@link #getModel()}.
+     * The model isn't destroyed explicitly because an inference may still be running on it;
+     * its native memory is freed once that last reference is gone.
+     */
+    public synchronized void unloadModel() {
+        modelGeneration++;
+        if (model != null) {
+            model = null;
+            Log.i(TAG, "Model unloaded");
+        }
+    }
+
+    /**
+     * Atomically replaces the active model and its manifest, and drops the cached results of the
+     * previous model. Requests already running keep the snapshot they started with; every request
+     * after this call uses the new one, and results they produce with the old one are no longer
+     * cached. The loader must be able to reload the new model if it is later unloaded under
+     * memory pressure.
+     *
+     * @param newModel the model and manifest to serve from now on
+     * @return the model that was active before, or null if none was loaded
+     */
+    public synchronized LoadedModel swapModel(LoadedModel newModel) {
+        LoadedModel previous = model;
+        model = newModel;
+        modelGeneration++;
+        resultCache.evictAll();
+        Log.i(TAG, "Active model swapped");
+        return previous;
+    }
+
+    /**
+     * Registers the action that replaces the displayed image with a cheaper version under
+     * memory pressure.
+     *
+     * @param displayDowngrader the action to run, or null to clear it
+     */
+    public void setDisplayDowngrader(Runnable displayDowngrader) {
+        this.displayDowngrader = displayDowngrader;
+    }
+
+    /**
+     * Returns the cached bitmap for the given key.
+     *
+     * @param key the key of the image, typically its content uri
+     * @return the cached bitmap, or null if it is not cached
+     */
+    public Bitmap getBitmap(String key) {
+        return bitmapCache.get(key);
+    }
+
+    /**
+     * Caches a bitmap under the given key.
+     *
+     * @param key    the key of the image, typically its content uri
+     * @param bitmap the bitmap to cache
+     */
+    public void putBitmap(String key, Bitmap bitmap) {
+        bitmapCache.put(key, bitmap);
+    }
+
+    /**
+     * Returns the cached raw scores for the given key, if they can be read with the given model.
+     *
+     * @param key    the key of the image, typically its content uri
+     * @param reader the model snapshot the caller interprets the scores with
+     * @return the cached scores, or null if they are not cached or the model has changed
+     */
+    public synchronized float[] getResult(String key, LoadedModel reader) {
+        return reader == model ? resultCache.get(key) : null;
+    }
+
+    /**
+     * Caches the raw scores produced for the given key, unless the model that produced them has
+     * been swapped or unloaded in the meantime.
+     *
+     * @param key    the key of the image, typically its content uri
+     * @param scores the raw scores from the model output
+     * @param source the model snapshot the scores were produced with
+     * @return true if the scores were cached
+     */
+    public synchronized boolean putResult(String key, float[] scores, LoadedModel source) {
+        if (source != model) {
+            return false;
+        }
+        resultCache.put(key, scores);
+        return true;
+    }
+
+    /**
+     * Returns the number of bytes currently held by both caches.
+     *
+     * @return the cache size in bytes
+     */
+    public int cacheSizeBytes() {
+        return bitmapCache.size() + resultCache.size();
+    }
+
+    /**
+     * Releases resources according to the given trim level, from cheapest to most expensive to
+     * rebuild.
+     *
+     * @param level the trim level passed by the system to {@link ComponentCallbacks2#onTrimMemory}
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            evictAll();
+            downgradeDisplay();
+            unloadModel();
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW) {
+            evictAll();
+            downgradeDisplay();
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_MODERATE) {
+            bitmapCache.trimToSize(bitmapCache.maxSize() / 2);
+            resultCache.trimToSize(resultCache.maxSize() / 2);
+        }
+        Log.i(TAG, "Trimmed memory at level " + level + ", cache now " + cacheSizeBytes() + " bytes");
+    }
+
+    /**
+     * Treated like the most severe trim level.
+     */
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        // Configuration changes don't affect the resources held here.
+    }
+
+    /**
+     * An immutable pairing of a loaded model with the manifest that describes its input and
+     * outputs. It is swapped as one reference, so the two always match.
+     */
+    public static final class LoadedModel {
+        private final Module module;
+        private final ModelManifest manifest;
+
+        /**
+         * Constructor for a LoadedModel.
+         *
+         * @param module   the loaded model
+         * @param manifest the manifest of the model
+         */
+        public LoadedModel(Module module, ModelManifest manifest) {
+            this.module = module;
+            this.manifest = manifest;
+        }
+
+        /**
+         * Returns the loaded model.
+         *
+         * @return the model
+         */
+        public Module getModule() {
+            return module;
+        }
+
+        /**
+         * Returns the manifest describing the model's input and outputs.
+         *
+         * @return the manifest
+         */
+        public ModelManifest getManifest() {
+            return manifest;
+        }
+    }
+
+    private void evictAll() {
+        bitmapCache.evictAll();
+        resultCache.evictAll();
+    }
+
+    private void downgradeDisplay() {
+        Runnable downgrader = displayDowngrader;
+        if (downgrader != null) {
+            downgrader.run();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.cloudgazer;
+
+import android.graphics.Bitmap;
+
+/**
+ * A list of results shown by {@link ResultsPagerAdapter}, one page per result.
+ * <p>
+ * Pages are read by position only when they are bound, so a source can hold thousands of results
+ * as compact data and build the text and thumbnail of a page on demand. A source may keep growing
+ * while it is displayed; the adapter picks up the new results when it is told they were appended.
+ */
+public interface ResultSource {
+
+    /**
+     * @return the number of results currently available
+     */
+    int size();
+
+    /**
+     * @param position the index of the result
+     * @return the headline of the result page
+     */
+    String getResult(int position);
+
+    /**
+     * @param position the index of the result
+     * @return the description shown below the headline
+     */
+    String getDescription(int position);
+
+    /**
+     * Loads the thumbnail of a result. Called off the main thread.
+     *
+     * @param position the index of the result
+     * @return the thumbnail, or null if the result has none
+     */
+    default Bitmap loadThumbnail(int position) {
+        return null;
+    }
+
+    /**
+     * @return whether any result has a thumbnail; if not, thumbnails are never loaded
+     */
+    default boolean hasThumbnails() {
+        return false;
+    }
+
+    /**
+     * Releases what the source holds open, once the adapter stops showing it.
+     */
+    default void release() {
+    }
+}
@@ -1,21 +1,45 @@
 package com.example.cloudgazer;
 
+import android.graphics.Bitmap;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * Adapter for displaying results and descriptions in a RecyclerView. Each item in the RecyclerView
  * will contain a result and its associated description.
+ * <p>
+ * The adapter reads its pages from a {@link ResultSource}, building each page's text only when it
+ * is bound and loading thumbnails on a background thread into a cache of a few pages, so memory
+ * stays bounded however many results there are. The adapter is created once; new results are
+ * applied as range updates, either by replacing the source or by announcing results appended to
+ * a growing source, instead of swapping adapters.
  */
 public class ResultsPagerAdapter extends RecyclerView.Adapter<ResultsPagerAdapter.ViewHolder> {
 
-    private final String[] results;
-    private final String[] descriptions;
+    // Number of page thumbnails kept around the current page; the rest are reloaded on demand.
+    static final int THUMBNAIL_CACHE_PAGES = 16;
+
+    private volatile ResultSource source;
+    // The size last announced to the RecyclerView; the source may already hold more results.
+    private int itemCount;
+    private final Map<Integer, Bitmap> thumbnails = new LinkedHashMap<Integer, Bitmap>(THUMBNAIL_CACHE_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Bitmap> eldest) {
+            return size() > THUMBNAIL_CACHE_PAGES;
+        }
+    };
+    private ExecutorService thumbnailLoader;
 
     /**
      * Constructor for the ResultsPagerAdapter.
@@ -24,8 +48,86 @@ public class ResultsPagerAdapter extends RecyclerView.Adapter<ResultsPagerAdapte
      * @param descriptions array of strings representing the descriptions for each result
      */
     public ResultsPagerAdapter(String[] results, String[] descriptions) {
-        this.results = results;
-        this.descriptions = descriptions;
+        this(new ArraySource(results, descriptions));
+    }
+
+    /**
+     * Constructor for a ResultsPagerAdapter showing the results of a source.
+     *
+     * @param source the results to be displayed
+     */
+    public ResultsPagerAdapter(ResultSource source) {
+        this.source = source;
+        this.itemCount = source.size();
+    }
+
+    /**
+     * Replaces the displayed results. Pages present before and after are rebound in place and
+     * only the difference in length is inserted or removed. Must be called on the main thread.
+     *
+     * @param results      array of strings representing the results to be displayed
+     * @param descriptions array of strings representing the descriptions for each result
+     */
+    public void setResults(String[] results, String[] descriptions) {
+        setSource(new ArraySource(results, descriptions));
+    }
+
+    /**
+     * Replaces the source of the displayed results and releases the previous one. Must be called
+     * on the main thread.
+     *
+     * @param newSource the results to be displayed
+     */
+    public void setSource(ResultSource newSource) {
+        ResultSource oldSource = source;
+        int oldCount = itemCount;
+        source = newSource;
+        itemCount = newSource.size();
+        synchronized (thumbnails) {
+            thumbnails.clear();
+        }
+        oldSource.release();
+
+        int common = Math.min(oldCount, itemCount);
+        if (common > 0) {
+            notifyItemRangeChanged(0, common);
+        }
+        if (itemCount > oldCount) {
+            notifyItemRangeInserted(oldCount, itemCount - oldCount);
+        } else if (itemCount < oldCount) {
+            notifyItemRangeRemoved(itemCount, oldCount - itemCount);
+        }
+    }
+
+    /**
+     * Shows the results appended to the source since the last update as one range insert.
+     * Must be called on the main thread.
+     *
+     * @param appendedTo the source the results were appended to; ignored if it was replaced since
+     */
+    public void notifyResultsAppended(ResultSource appendedTo) {
+        if (appendedTo != source) {
+            return;
+        }
+        int oldCount = itemCount;
+        itemCount = source.size();
+        if (itemCount > oldCount) {
+            notifyItemRangeInserted(oldCount, itemCount - oldCount);
+        }
+    }
+
+    /**
+     * Releases the source and stops loading thumbnails, once the adapter is no longer shown.
+     */
+    public void release() {
+        source.release();
+        if (thumbnailLoader != null) {
+            thumbnailLoader.shutdownNow();
+            thumbnailLoader = null;
+        }
+        synchronized (thumbnails) {
+            thumbnails.clear();
+        }
     }
 
     /**
@@ -46,7 +148,9 @@ public class ResultsPagerAdapter extends RecyclerView.Adapter<ResultsPagerAdapte
 
     /**
      * Called by RecyclerView to display the data at the specified position. This method updates
-     * the contents of the ViewHolder to reflect the item at the given position.
+     * the contents of the ViewHolder to reflect the item at the given position. The thumbnail is
+     * shown straight from the cache, or loaded in the background and shown if the holder is still
+     * bound to the same page by then.
      *
      * @param holder   the ViewHolder which should be updated to represent the contents of the
      *                 item at the given position in the data set
@@ -54,8 +158,46 @@ public class ResultsPagerAdapter extends RecyclerView.Adapter<ResultsPagerAdapte
      */
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        holder.resultTextView.setText(results[position]);
-        holder.descriptionTextView.setText(descriptions[position]);
+        holder.boundPosition = position;
+        holder.resultTextView.setText(source.getResult(position));
+        holder.descriptionTextView.setText(source.getDescription(position));
+
+        Bitmap thumbnail;
+        synchronized (thumbnails) {
+            thumbnail = thumbnails.get(position);
+        }
+        holder.thumbnailImageView.setImageBitmap(thumbnail);
+        holder.thumbnailImageView.setVisibility(thumbnail != null ? View.VISIBLE : View.GONE);
+        if (thumbnail != null || !source.hasThumbnails()) {
+            return;
+        }
+
+        final ResultSource boundSource = source;
+        if (thumbnailLoader == null) {
+            thumbnailLoader = Executors.newSingleThreadExecutor();
+        }
+        thumbnailLoader.execute(() -> {
+            if (holder.boundPosition != position) {
+                // Scrolled past before its turn came; skip the decode.
+                return;
+            }
+            Bitmap loaded = boundSource.loadThumbnail(position);
+            if (loaded == null) {
+                return;
+            }
+            synchronized (thumbnails) {
+                if (boundSource != source) {
+                    return;
+                }
+                thumbnails.put(position, loaded);
+            }
+            holder.itemView.post(() -> {
+                if (boundSource == source && holder.boundPosition == position) {
+                    holder.thumbnailImageView.setImageBitmap(loaded);
+                    holder.thumbnailImageView.setVisibility(View.VISIBLE);
+                }
+            });
+        });
     }
 
     /**
@@ -65,7 +207,35 @@ public class ResultsPagerAdapter extends RecyclerView.Adapter<ResultsPagerAdapte
      */
     @Override
     public int getItemCount() {
-        return results.length;
+        return itemCount;
+    }
+
+    /**
+     * A fixed list of results given as text.
+     */
+    private static final class ArraySource implements ResultSource {
+        private final String[] results;
+        private final String[] descriptions;
+
+        ArraySource(String[] results, String[] descriptions) {
+            this.results = results;
+            this.descriptions = descriptions;
+        }
+
+        @Override
+        public int size() {
+            return results.length;
+        }
+
+        @Override
+        public String getResult(int position) {
+            return results[position];
+        }
+
+        @Override
+        public String getDescription(int position) {
+            return descriptions[position];
+        }
     }
 
     /**
@@ -74,6 +244,9 @@ public class ResultsPagerAdapter extends RecyclerView.Adapter<ResultsPagerAdapte
     static class ViewHolder extends RecyclerView.ViewHolder {
         TextView resultTextView;
         TextView descriptionTextView;
+        ImageView thumbnailImageView;
+        // Read by the thumbnail loader to skip pages that were scrolled past or rebound.
+        volatile int boundPosition = RecyclerView.NO_POSITION;
 
         /**
          * Constructor for the ViewHolder, used in onCreateViewHolder().
@@ -84,7 +257,7 @@ public class ResultsPagerAdapter extends RecyclerView.Adapter<ResultsPagerAdapte
             super(view);
             resultTextView = view.findViewById(R.id.textResult);
             descriptionTextView = view.findViewById(R.id.textDescription);
+            thumbnailImageView = view.findViewById(R.id.imageThumbnail);
         }
     }
 }
-
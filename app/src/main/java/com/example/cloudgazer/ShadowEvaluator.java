@@ -0,0 +1,490 @@
+package com.example.cloudgazer;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.pytorch.IValue;
+import org.pytorch.Module;
+import org.pytorch.Tensor;
+import org.pytorch.torchvision.TensorImageUtils;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ShadowEvaluator runs a candidate model next to the active one so a new model file can be
+ * shipped without a new APK.
+ * <p>
+ * The candidate is loaded from app storage in the background, together with the manifest sidecar
+ * next to it, e.g. candidate.json for candidate.ptl, so it may use its own input size,
+ * normalization and label order. A sampled fraction of live requests is then replayed on it
+ * after the active model has produced the result the user sees, and the top-1 labels of both
+ * models are compared by label id.
+ * Shadow runs happen on a single lowest-priority thread and are dropped while one is still
+ * running. Thread priority alone doesn't keep them out of the way, since both models run their
+ * operators on PyTorch's shared intra-op pool, so a sampled request is also held back while any
+ * user inference is running or queued, as announced through {@link #onRequestStarted()} and
+ * {@link #onRequestFinished()}, and only the latest one is shadowed once the app is idle. A user
+ * request arriving while a shadow forward pass is already running still shares the pool with it
+ * until that pass ends. Once enough samples agree with the active model, the candidate and its
+ * sidecar replace the active files and the candidate is promoted through
+ * {@link ResourceManager#swapModel(ResourceManager.LoadedModel)}, together with its manifest.
+ * <p>
+ * Like the active model, the candidate is released under critical memory pressure and loaded
+ * again the next time a request is sampled. {@link #shutdown()} must be called when the owner is
+ * destroyed to stop the shadow thread and drop the candidate.
+ */
+public class ShadowEvaluator implements ComponentCallbacks2 {
+    private static final String TAG = "ShadowEvaluator";
+
+    private final ResourceManager resourceManager;
+    private final File candidateFile;
+    private final File candidateSidecar;
+    private final File activeFile;
+    private final File activeSidecar;
+    private final float sampleRate;
+    private final int minSamples;
+    private final float minAgreement;
+    private final Random random = new Random();
+    private final Stats stats = new Stats();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+        runnable.run();
+    }, TAG));
+    // Set while a shadow run is handed to the executor or running; later samples are dropped.
+    private final AtomicBoolean shadowRunning = new AtomicBoolean();
+    private final CandidateLoader candidateLoader;
+    // Number of user inferences running or queued; shadow runs wait until there are none.
+    private final AtomicInteger userRequests = new AtomicInteger();
+    // The latest sampled request, held back until the user inferences are done.
+    private final AtomicReference<Runnable> pendingShadowRun = new AtomicReference<>();
+    private volatile ResourceManager.LoadedModel candidate;
+    private volatile Runnable promotionListener;
+    // Set when the candidate was dropped under memory pressure and should be reloaded on demand.
+    private volatile boolean candidateReleased;
+
+    /**
+     * Constructor for the ShadowEvaluator.
+     *
+     * @param resourceManager the owner of the active model
+     * @param candidateFile   where a candidate model is dropped in app storage, with its sidecar
+     * @param activeFile      where the active model is read from when it is (re)loaded, with its sidecar
+     * @param sampleRate      fraction of requests, between 0 and 1, that are shadowed
+     * @param minSamples      number of shadow runs required before the candidate can be promoted
+     * @param minAgreement    fraction of shadow runs whose top-1 must match the active model
+     */
+    public ShadowEvaluator(ResourceManager resourceManager, File candidateFile, File activeFile,
+                           float sampleRate, int minSamples, float minAgreement) {
+        this(resourceManager, candidateFile, activeFile, sampleRate, minSamples, minAgreement,
+                file -> Module.load(file.getAbsolutePath()));
+    }
+
+    /**
+     * Constructor for a ShadowEvaluator that loads the candidate with the given loader.
+     *
+     * @param resourceManager the owner of the active model
+     * @param candidateFile   where a candidate model is dropped in app storage, with its sidecar
+     * @param activeFile      where the active model is read from when it is (re)loaded, with its sidecar
+     * @param sampleRate      fraction of requests, between 0 and 1, that are shadowed
+     * @param minSamples      number of shadow runs required before the candidate can be promoted
+     * @param minAgreement    fraction of shadow runs whose top-1 must match the active model
+     * @param candidateLoader loads the candidate model from its file
+     */
+    ShadowEvaluator(ResourceManager resourceManager, File candidateFile, File activeFile,
+                    float sampleRate, int minSamples, float minAgreement, CandidateLoader candidateLoader) {
+        this.resourceManager = resourceManager;
+        this.candidateFile = candidateFile;
+        this.candidateSidecar = sidecarOf(candidateFile);
+        this.activeFile = activeFile;
+        this.activeSidecar = sidecarOf(activeFile);
+        this.sampleRate = sampleRate;
+        this.minSamples = minSamples;
+        this.minAgreement = minAgreement;
+        this.candidateLoader = candidateLoader;
+    }
+
+    /**
+     * Registers the action to run after a candidate has been promoted, so state derived from
+     * the previous model's manifest, such as the preprocessing input size, can be updated. Cached
+     * results of the previous model are already dropped by the swap.
+     *
+     * @param promotionListener the action to run on the shadow thread, or null to clear it
+     */
+    public void setPromotionListener(Runnable promotionListener) {
+        this.promotionListener = promotionListener;
+    }
+
+    /**
+     * Loads the candidate model and its manifest in the background if both files are present.
+     * A candidate without a sidecar is ignored, since it couldn't be preprocessed for or
+     * described after promotion.
+     */
+    public void loadCandidate() {
+        if (!candidateFile.exists() || executor.isShutdown()) {
+            return;
+        }
+        if (!candidateSidecar.exists()) {
+            Log.e(TAG, "Candidate model has no " + candidateSidecar.getName() + ", not evaluating it");
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                candidateReleased = false;
+                ModelManifest manifest = ModelManifest.load(candidateSidecar);
+                candidate = new ResourceManager.LoadedModel(candidateLoader.load(candidateFile), manifest);
+                Log.i(TAG, "Candidate model loaded from " + candidateFile.getName());
+            } catch (Exception e) {
+                Log.e(TAG, "Candidate model couldn't be loaded", e);
+            }
+        });
+    }
+
+    /**
+     * Returns whether a candidate model is loaded and being evaluated.
+     *
+     * @return true if a candidate is loaded
+     */
+    public boolean hasCandidate() {
+        return candidate != null;
+    }
+
+    /**
+     * Announces that a user inference was started or queued. Shadow runs are held back until
+     * every announced request has finished.
+     */
+    public void onRequestStarted() {
+        userRequests.incrementAndGet();
+    }
+
+    /**
+     * Announces that a user inference started with {@link #onRequestStarted()} has finished, and
+     * runs the latest sampled request on the candidate if no other user inference is left.
+     */
+    public void onRequestFinished() {
+        if (userRequests.decrementAndGet() == 0) {
+            Runnable shadowRun = pendingShadowRun.getAndSet(null);
+            if (shadowRun != null) {
+                submitShadowRun(shadowRun);
+            }
+        }
+    }
+
+    /**
+     * Replays a request that the active model has already answered on the candidate model,
+     * if the request is sampled. Returns immediately. The request runs on the candidate once no
+     * user inference is running or queued and the shadow thread is idle; otherwise it is
+     * replaced by a later sample or dropped.
+     * <p>
+     * The candidate reuses the active input tensor when both manifests ask for the same input size
+     * and normalization; otherwise the image is preprocessed again as the candidate's manifest
+     * describes. The image must not be recycled afterwards.
+     *
+     * @param image              the preprocessed image the active model was run on
+     * @param inputTensor        the input tensor the active model was run on
+     * @param activeScores       the raw genus scores produced by the active model
+     * @param activeLatencyNanos how long the active forward pass took
+     * @param activeManifest     the manifest of the active model
+     */
+    public void maybeShadow(Bitmap image, Tensor inputTensor, float[] activeScores, long activeLatencyNanos,
+                            ModelManifest activeManifest) {
+        if ((candidate == null && !candidateReleased) || random.nextFloat() >= sampleRate) {
+            return;
+        }
+        if (candidate == null) {
+            // Released under memory pressure; this sample reloads it instead of being shadowed.
+            loadCandidate();
+            return;
+        }
+        Runnable shadowRun = () -> {
+            // The candidate may have been released or promoted, or a user request may have come
+            // in, while this run was waiting to be handed over.
+            ResourceManager.LoadedModel shadow = candidate;
+            if (shadow == null || userRequests.get() > 0) {
+                return;
+            }
+            Tensor candidateInput = sameInput(activeManifest, shadow.getManifest()) ? inputTensor
+                    : preprocess(image, shadow.getManifest());
+            long start = SystemClock.elapsedRealtimeNanos();
+            float[] candidateScores = OutputHeads.primary(shadow.getModule().forward(IValue.from(candidateInput)), shadow.getManifest());
+            long candidateLatencyNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+            // The label order may differ between the models, so their top-1 labels are compared by id
+            boolean agreed = candidateScores != null && activeManifest.getLabelId(Scores.argmax(activeScores))
+                    .equals(shadow.getManifest().getLabelId(Scores.argmax(candidateScores)));
+            stats.record(agreed, activeLatencyNanos, candidateLatencyNanos);
+            Log.i(TAG, String.format("Shadow run: top-1 %s, active %.1f ms, candidate %.1f ms (%s)",
+                    agreed ? "agreed" : "differed", activeLatencyNanos / 1e6, candidateLatencyNanos / 1e6, stats));
+
+            if (stats.isReadyForPromotion(minSamples, minAgreement)) {
+                promote();
+            }
+        };
+        if (userRequests.get() > 0) {
+            pendingShadowRun.set(shadowRun);
+            // The requests may have finished in between, in which case nobody else will run it.
+            if (userRequests.get() == 0 && pendingShadowRun.compareAndSet(shadowRun, null)) {
+                submitShadowRun(shadowRun);
+            }
+        } else {
+            submitShadowRun(shadowRun);
+        }
+    }
+
+    /**
+     * Returns whether the candidate can be run on the active model's input tensor.
+     *
+     * @param active    the manifest of the active model
+     * @param candidate the manifest of the candidate
+     * @return true if both expect the same input size and normalization
+     */
+    private static boolean sameInput(ModelManifest active, ModelManifest candidate) {
+        return active.getInputSize() == candidate.getInputSize()
+                && Arrays.equals(active.getMean(), candidate.getMean())
+                && Arrays.equals(active.getStd(), candidate.getStd());
+    }
+
+    /**
+     * Preprocesses an image as the candidate's manifest describes.
+     *
+     * @param image    the preprocessed image the active model was run on
+     * @param manifest the manifest of the candidate
+     * @return the candidate's input tensor
+     */
+    private static Tensor preprocess(Bitmap image, ModelManifest manifest) {
+        int size = manifest.getInputSize();
+        Bitmap scaled = image.getWidth() == size && image.getHeight() == size
+                ? image : Bitmap.createScaledBitmap(image, size, size, true);
+        return TensorImageUtils.bitmapToFloat32Tensor(scaled, manifest.getMean(), manifest.getStd());
+    }
+
+    /**
+     * Hands a shadow run to the shadow thread, or drops it if another one is still running.
+     *
+     * @param shadowRun the shadow run
+     */
+    private void submitShadowRun(Runnable shadowRun) {
+        if (!shadowRunning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    shadowRun.run();
+                } finally {
+                    shadowRunning.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shut down in the meantime
+            shadowRunning.set(false);
+        }
+    }
+
+    /**
+     * Returns whether a shadow run is waiting for or running on the shadow thread.
+     *
+     * @return true if later samples are currently dropped
+     */
+    boolean isShadowRunning() {
+        return shadowRunning.get();
+    }
+
+    /**
+     * Promotes the candidate to the active model. The model and its manifest are swapped as one
+     * snapshot, so requests keep being served throughout and never pair the new model with the
+     * old manifest. The candidate file and its sidecar replace the active ones so the
+     * promoted model is also the one reloaded, and described by the right manifest, after memory
+     * pressure or an app restart. The promotion listener runs once the new model is active.
+     */
+    public synchronized void promote() {
+        ResourceManager.LoadedModel promoted = candidate;
+        if (promoted == null) {
+            return;
+        }
+        if (!replaceActiveFiles()) {
+            Log.e(TAG, "Candidate files couldn't replace " + activeFile.getName() + ", not promoting");
+            return;
+        }
+        resourceManager.swapModel(promoted);
+        candidate = null;
+        Runnable listener = promotionListener;
+        if (listener != null) {
+            listener.run();
+        }
+        Log.i(TAG, "Candidate model promoted after " + stats);
+    }
+
+    /**
+     * Moves the candidate and its sidecar over the active ones. The active sidecar is kept aside
+     * until both moves succeeded, so a failure leaves the active model and manifest paired.
+     *
+     * @return true if both files were replaced
+     */
+    private boolean replaceActiveFiles() {
+        File backup = new File(activeSidecar.getPath() + ".bak");
+        boolean hadSidecar = activeSidecar.exists();
+        if (hadSidecar && !activeSidecar.renameTo(backup)) {
+            return false;
+        }
+        if (candidateSidecar.renameTo(activeSidecar)) {
+            if (candidateFile.renameTo(activeFile)) {
+                backup.delete();
+                // Dated now, so the promoted files aren't taken for copies older than the APK's assets.
+                long now = System.currentTimeMillis();
+                activeFile.setLastModified(now);
+                activeSidecar.setLastModified(now);
+                return true;
+            }
+            activeSidecar.renameTo(candidateSidecar);
+        }
+        if (hadSidecar) {
+            backup.renameTo(activeSidecar);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the sidecar describing a model file.
+     *
+     * @param modelFile the model file
+     * @return the manifest sidecar next to it
+     */
+    private static File sidecarOf(File modelFile) {
+        return new File(modelFile.getParentFile(), ModelManifest.sidecarName(modelFile.getName()));
+    }
+
+    /**
+     * Stops the shadow thread and drops the candidate. Shadow runs in progress are interrupted
+     * and later requests are no longer shadowed.
+     */
+    public void shutdown() {
+        pendingShadowRun.set(null);
+        candidate = null;
+        candidateReleased = false;
+        executor.shutdownNow();
+    }
+
+    /**
+     * Releases the candidate at the trim levels where the resource manager unloads the active
+     * model. It is loaded again the next time a request is sampled.
+     *
+     * @param level the trim level passed by the system to {@link ComponentCallbacks2#onTrimMemory}
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        if ((level >= TRIM_MEMORY_COMPLETE || level == TRIM_MEMORY_RUNNING_CRITICAL) && candidate != null) {
+            candidate = null;
+            candidateReleased = true;
+            pendingShadowRun.set(null);
+            Log.i(TAG, "Candidate model released at trim level " + level);
+        }
+    }
+
+    /**
+     * Treated like the most severe trim level.
+     */
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        // Configuration changes don't affect the candidate.
+    }
+
+    /**
+     * Returns the statistics gathered so far.
+     *
+     * @return the shadow run statistics
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Loads a candidate model from its file.
+     */
+    interface CandidateLoader {
+        /**
+         * Loads the model.
+         *
+         * @param file the candidate model file
+         * @return the loaded model
+         * @throws Exception if the model couldn't be loaded
+         */
+        Module load(File file) throws Exception;
+    }
+
+    /**
+     * Latency and top-1 agreement statistics of the shadow runs.
+     */
+    public static class Stats {
+        private int samples;
+        private int agreements;
+        private long activeNanos;
+        private long candidateNanos;
+
+        /**
+         * Records one shadow run.
+         *
+         * @param agreed             whether both models returned the same top-1 class
+         * @param activeLatencyNanos latency of the active model
+         * @param candidateLatencyNanos latency of the candidate model
+         */
+        synchronized void record(boolean agreed, long activeLatencyNanos, long candidateLatencyNanos) {
+            samples++;
+            if (agreed) {
+                agreements++;
+            }
+            activeNanos += activeLatencyNanos;
+            candidateNanos += candidateLatencyNanos;
+        }
+
+        /**
+         * Returns whether enough samples were collected and enough of them agreed.
+         *
+         * @param minSamples   number of samples required
+         * @param minAgreement fraction of samples that must agree
+         * @return true if the candidate may be promoted
+         */
+        synchronized boolean isReadyForPromotion(int minSamples, float minAgreement) {
+            return samples >= minSamples && getAgreement() >= minAgreement;
+        }
+
+        public synchronized int getSamples() {
+            return samples;
+        }
+
+        public synchronized float getAgreement() {
+            return samples == 0 ? 0f : (float) agreements / samples;
+        }
+
+        public synchronized double getMeanActiveMillis() {
+            return samples == 0 ? 0 : activeNanos / 1e6 / samples;
+        }
+
+        public synchronized double getMeanCandidateMillis() {
+            return samples == 0 ? 0 : candidateNanos / 1e6 / samples;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%d samples, %.1f%% agreement, mean active %.1f ms, mean candidate %.1f ms",
+                    samples, getAgreement() * 100, getMeanActiveMillis(), getMeanCandidateMillis());
+        }
+    }
+}
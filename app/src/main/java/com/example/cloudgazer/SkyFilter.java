@@ -0,0 +1,191 @@
+package com.example.cloudgazer;
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SkyFilter is a cheap check run before the model to skip photos that obviously aren't of the sky.
+ * <p>
+ * The image is shrunk to a tiny grid and the upper part of the frame, where the sky usually is,
+ * is scanned for sky-coloured pixels: blue-dominant pixels for clear and stormy sky, unsaturated
+ * pixels down to a dark grey for clouds and overcast, and bright orange, pink and golden pixels
+ * for sunsets. Only pixels too dark to tell apart from a night scene or a dark UI are left out,
+ * along with saturated reds, greens and browns. The fraction of sky-coloured pixels is the sky
+ * score; images scoring below the threshold are rejected. This costs a few thousand integer
+ * operations instead of a full forward pass.
+ */
+public class SkyFilter {
+    static final int GRID_SIZE = 32;
+    static final float DEFAULT_THRESHOLD = 0.35f;
+
+    // Fraction of rows, from the top, that are scanned for sky.
+    private static final float UPPER_REGION = 0.5f;
+    // Clouds and overcast sky are nearly grey, down to the dark grey of heavy overcast; darker
+    // greys are mostly night scenes and dark UI themes.
+    private static final float CLOUD_MAX_SATURATION = 0.18f;
+    private static final int CLOUD_MIN_BRIGHTNESS = 80;
+    // Clear and stormy sky is blue-dominant and not too dark.
+    private static final int BLUE_MIN_BRIGHTNESS = 75;
+    private static final int BLUE_GREEN_TOLERANCE = 10;
+    // Sunset sky is red-dominant but bright, with enough green to be orange, pink or golden
+    // rather than the deep red or brown of walls, bricks and wood.
+    private static final int SUNSET_MIN_BRIGHTNESS = 200;
+    private static final float SUNSET_MIN_GREEN_RATIO = 0.35f;
+
+    private final float threshold;
+    private final AtomicInteger checked = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    /**
+     * Constructor for the SkyFilter.
+     *
+     * @param threshold minimum sky score, between 0 and 1, for an image to pass; lower values
+     *                  reject fewer skies at the cost of letting more non-sky images through
+     */
+    public SkyFilter(float threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns whether the image may show the sky and should be passed to the model.
+     *
+     * @param bitmap the image to check, usually the preprocessed model input
+     * @return false if the image is rejected as not showing the sky
+     */
+    public boolean isSky(Bitmap bitmap) {
+        Bitmap grid = Bitmap.createScaledBitmap(bitmap, GRID_SIZE, GRID_SIZE, true);
+        int[] pixels = new int[GRID_SIZE * GRID_SIZE];
+        grid.getPixels(pixels, 0, GRID_SIZE, 0, 0, GRID_SIZE, GRID_SIZE);
+        if (grid != bitmap) {
+            grid.recycle();
+        }
+        return accept(skyScore(pixels, GRID_SIZE, GRID_SIZE));
+    }
+
+    /**
+     * Applies the threshold to a sky score and counts the decision.
+     *
+     * @param score the sky score of an image
+     * @return true if the image passes
+     */
+    boolean accept(float score) {
+        checked.incrementAndGet();
+        if (score < threshold) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the fraction of checked images that were rejected so far.
+     *
+     * @return the rejection rate, or 0 if nothing was checked
+     */
+    public float getRejectionRate() {
+        int total = checked.get();
+        return total == 0 ? 0f : (float) rejected.get() / total;
+    }
+
+    /**
+     * Computes the fraction of sky-coloured pixels in the upper region of an image.
+     *
+     * @param pixels ARGB pixels in row-major order
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @return the sky score, between 0 and 1
+     */
+    static float skyScore(int[] pixels, int width, int height) {
+        int rows = Math.max(1, Math.round(height * UPPER_REGION));
+        int skyPixels = 0;
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < width; x++) {
+                if (isSkyColour(pixels[y * width + x])) {
+                    skyPixels++;
+                }
+            }
+        }
+        return (float) skyPixels / (rows * width);
+    }
+
+    private static boolean isSkyColour(int pixel) {
+        int r = (pixel >> 16) & 0xff;
+        int g = (pixel >> 8) & 0xff;
+        int b = pixel & 0xff;
+        int max = Math.max(r, Math.max(g, b));
+        int min = Math.min(r, Math.min(g, b));
+        if (max >= CLOUD_MIN_BRIGHTNESS && max - min <= CLOUD_MAX_SATURATION * max) {
+            return true;
+        }
+        if (max >= BLUE_MIN_BRIGHTNESS && b == max && b > r && g <= b + BLUE_GREEN_TOLERANCE) {
+            return true;
+        }
+        return r == max && r >= SUNSET_MIN_BRIGHTNESS && g >= SUNSET_MIN_GREEN_RATIO * r;
+    }
+
+    /**
+     * Rejection and false-reject rates of a filter on a labeled set of images.
+     */
+    public static final class Evaluation {
+        public final int total;
+        public final int rejected;
+        public final int skies;
+        public final int falseRejects;
+
+        Evaluation(int total, int rejected, int skies, int falseRejects) {
+            this.total = total;
+            this.rejected = rejected;
+            this.skies = skies;
+            this.falseRejects = falseRejects;
+        }
+
+        /**
+         * @return the fraction of all images that were rejected
+         */
+        public float rejectionRate() {
+            return total == 0 ? 0f : (float) rejected / total;
+        }
+
+        /**
+         * @return the fraction of sky images that were wrongly rejected
+         */
+        public float falseRejectRate() {
+            return skies == 0 ? 0f : (float) falseRejects / skies;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d images, rejection rate %.1f%%, false-reject rate %.1f%%",
+                    total, rejectionRate() * 100, falseRejectRate() * 100);
+        }
+    }
+
+    /**
+     * Measures the filter on a labeled set of images, given as pixel grids.
+     *
+     * @param threshold the threshold to evaluate
+     * @param images    ARGB pixels of each image, each a square grid
+     * @param isSky     the label of each image: true if it shows the sky
+     * @return the rejection and false-reject rates
+     */
+    public static Evaluation evaluate(float threshold, int[][] images, boolean[] isSky) {
+        int rejected = 0;
+        int skies = 0;
+        int falseRejects = 0;
+        for (int i = 0; i < images.length; i++) {
+            int size = (int) Math.round(Math.sqrt(images[i].length));
+            boolean rejectedImage = skyScore(images[i], size, size) < threshold;
+            if (rejectedImage) {
+                rejected++;
+            }
+            if (isSky[i]) {
+                skies++;
+                if (rejectedImage) {
+                    falseRejects++;
+                }
+            }
+        }
+        return new Evaluation(images.length, rejected, skies, falseRejects);
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.cloudgazer;
+
+import android.util.Log;
+
+/**
+ * ThermalGovernor scales down the cost of inference while the device is hot or its battery is low,
+ * and scales it back up as conditions improve.
+ * <p>
+ * The governor picks one of a fixed list of tiers. Each tier sets the input resolution, the
+ * number of inference threads and the batch size used for video frames. Device state is read
+ * through {@link ThermalSource} and {@link BatterySource} so tests can fake it. Every tier change
+ * is logged together with the mean inference latency measured before and after the change.
+ */
+public class ThermalGovernor {
+    private static final String TAG = "ThermalGovernor";
+
+    // Matches PowerManager.THERMAL_STATUS_MODERATE and THERMAL_STATUS_SEVERE.
+    static final int THERMAL_STATUS_MODERATE = 2;
+    static final int THERMAL_STATUS_SEVERE = 3;
+    static final int LOW_BATTERY_PERCENT = 15;
+
+    // Number of inferences averaged for the latency logged around a tier change.
+    private static final int LATENCY_WINDOW = 5;
+
+    /**
+     * Settings applied to inference at one level of throttling.
+     */
+    public static final class Tier {
+        public final int inputSize;
+        public final int threads;
+        public final int batchSize;
+
+        Tier(int inputSize, int threads, int batchSize) {
+            this.inputSize = inputSize;
+            this.threads = threads;
+            this.batchSize = batchSize;
+        }
+
+        /**
+         * Scales this tier's input size to a model whose full-quality input size differs from
+         * that of the first tier.
+         *
+         * @param baseInputSize the input size the model was trained at
+         * @return the input size to use at this tier
+         */
+        public int inputSizeFor(int baseInputSize) {
+            return Math.round((float) baseInputSize * inputSize / TIERS[0].inputSize);
+        }
+
+        @Override
+        public String toString() {
+            return inputSize + "px, " + threads + " threads, batch " + batchSize;
+        }
+    }
+
+    /**
+     * Tiers from full quality to the most throttled.
+     */
+    static final Tier[] TIERS = {
+            new Tier(224, 4, 4),
+            new Tier(192, 2, 2),
+            new Tier(160, 1, 1),
+    };
+
+    /**
+     * Reads the thermal status of the device.
+     */
+    public interface ThermalSource {
+        /**
+         * @return one of the PowerManager THERMAL_STATUS_* constants
+         */
+        int getThermalStatus();
+    }
+
+    /**
+     * Reads the battery state of the device.
+     */
+    public interface BatterySource {
+        /**
+         * @return the remaining charge, from 0 to 100
+         */
+        int getLevelPercent();
+
+        /**
+         * @return true if the device is plugged in
+         */
+        boolean isCharging();
+    }
+
+    /**
+     * Notified when the governor switches to another tier.
+     */
+    public interface TierListener {
+        void onTierChanged(Tier tier);
+    }
+
+    private final ThermalSource thermalSource;
+    private final BatterySource batterySource;
+    private final TierListener listener;
+    private int tierIndex;
+    private long latencySumNanos;
+    private int latencyCount;
+    private double latencyBeforeMillis = -1;
+
+    /**
+     * Constructor for the ThermalGovernor. The governor starts at the full quality tier.
+     *
+     * @param thermalSource reads the thermal status
+     * @param batterySource reads the battery state
+     * @param listener      applies a new tier to the inference pipeline
+     */
+    public ThermalGovernor(ThermalSource thermalSource, BatterySource batterySource, TierListener listener) {
+        this.thermalSource = thermalSource;
+        this.batterySource = batterySource;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the tier currently in effect.
+     *
+     * @return the current tier
+     */
+    public synchronized Tier getTier() {
+        return TIERS[tierIndex];
+    }
+
+    /**
+     * Reads the device state and switches tier if needed. Called before each inference.
+     *
+     * @return the tier to use for the next inference
+     */
+    public Tier update() {
+        int target = targetTierIndex(thermalSource.getThermalStatus(),
+                batterySource.getLevelPercent(), batterySource.isCharging());
+        Tier tier;
+        synchronized (this) {
+            if (target == tierIndex) {
+                return TIERS[tierIndex];
+            }
+            latencyBeforeMillis = meanLatencyMillis();
+            Log.i(TAG, String.format("Switching from [%s] to [%s], latency before %.1f ms",
+                    TIERS[tierIndex], TIERS[target], latencyBeforeMillis));
+            tierIndex = target;
+            latencySumNanos = 0;
+            latencyCount = 0;
+            tier = TIERS[target];
+        }
+        listener.onTierChanged(tier);
+        return tier;
+    }
+
+    /**
+     * Records the latency of one inference run at the current tier.
+     *
+     * @param latencyNanos the measured latency
+     */
+    public synchronized void recordLatency(long latencyNanos) {
+        latencySumNanos += latencyNanos;
+        latencyCount++;
+        if (latencyBeforeMillis >= 0 && latencyCount == LATENCY_WINDOW) {
+            Log.i(TAG, String.format("Tier [%s]: latency before %.1f ms, after %.1f ms",
+                    TIERS[tierIndex], latencyBeforeMillis, meanLatencyMillis()));
+            latencyBeforeMillis = -1;
+        }
+    }
+
+    private double meanLatencyMillis() {
+        return latencyCount == 0 ? 0 : latencySumNanos / 1e6 / latencyCount;
+    }
+
+    /**
+     * Maps the device state to a tier: moderate heat or a low battery drop one tier, severe heat
+     * or worse drops to the most throttled tier.
+     *
+     * @param thermalStatus  one of the PowerManager THERMAL_STATUS_* constants
+     * @param batteryPercent the remaining charge, from 0 to 100
+     * @param charging       whether the device is plugged in
+     * @return the index of the tier in {@link #TIERS}
+     */
+    static int targetTierIndex(int thermalStatus, int batteryPercent, boolean charging) {
+        int index = 0;
+        if (thermalStatus >= THERMAL_STATUS_SEVERE) {
+            index = 2;
+        } else if (thermalStatus >= THERMAL_STATUS_MODERATE) {
+            index = 1;
+        }
+        if (!charging && batteryPercent <= LOW_BATTERY_PERCENT) {
+            index = Math.max(index, 1);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.cloudgazer;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TimelineResultSource holds the timeline of a video as it is classified, one result page per
+ * sampled timestamp.
+ * <p>
+ * Entries are kept as parallel primitive arrays, a few bytes per entry, and appended batch by
+ * batch from the inference thread. The page text is formatted only when a page is bound, and the
+ * frame thumbnail is decoded again from the video on demand instead of being kept in memory.
+ */
+public class TimelineResultSource implements ResultSource {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final ModelManifest labels;
+    private final VideoFrameSource thumbnails;
+    private long[] timestampsMs = new long[INITIAL_CAPACITY];
+    private int[] classIndices = new int[INITIAL_CAPACITY];
+    private float[] probabilities = new float[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Constructor for the TimelineResultSource.
+     *
+     * @param labels     the manifest the class indices are labelled with
+     * @param thumbnails decodes the frame of a page at thumbnail size, or null for no thumbnails;
+     *                   released with the source
+     */
+    public TimelineResultSource(ModelManifest labels, VideoFrameSource thumbnails) {
+        this.labels = labels;
+        this.thumbnails = thumbnails;
+    }
+
+    /**
+     * Appends the entries of a classified batch. May be called from any thread.
+     *
+     * @param entries the entries to append, in timestamp order
+     */
+    public synchronized void append(List<VideoClassifier.TimelineEntry> entries) {
+        if (size + entries.size() > timestampsMs.length) {
+            int capacity = Math.max(size + entries.size(), timestampsMs.length * 2);
+            timestampsMs = Arrays.copyOf(timestampsMs, capacity);
+            classIndices = Arrays.copyOf(classIndices, capacity);
+            probabilities = Arrays.copyOf(probabilities, capacity);
+        }
+        for (VideoClassifier.TimelineEntry entry : entries) {
+            timestampsMs[size] = entry.timestampMs;
+            classIndices[size] = entry.classIndex;
+            probabilities[size] = entry.probability;
+            size++;
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized String getResult(int position) {
+        long seconds = timestampsMs[position] / 1000;
+        String cloudType = CaptureImageActivity.labelName(labels, classIndices[position]);
+        String probabilityPercent = String.format("%.2f", probabilities[position] * 100) + "%";
+        return String.format("%d:%02d", seconds / 60, seconds % 60)
+                + "\nIt might be " + cloudType + " cloud( Probability  " + probabilityPercent + ")\n";
+    }
+
+    @Override
+    public String getDescription(int position) {
+        int classIndex;
+        synchronized (this) {
+            classIndex = classIndices[position];
+        }
+        return CaptureImageActivity.labelDescription(labels, classIndex);
+    }
+
+    @Override
+    public Bitmap loadThumbnail(int position) {
+        long timestampMs;
+        synchronized (this) {
+            timestampMs = timestampsMs[position];
+        }
+        try {
+            return thumbnails.frameAt(timestampMs);
+        } catch (IOException | RuntimeException e) {
+            // Released while the page was loading, or the frame can't be decoded; show no thumbnail.
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasThumbnails() {
+        return thumbnails != null;
+    }
+
+    @Override
+    public void release() {
+        if (thumbnails != null) {
+            try {
+                thumbnails.close();
+            } catch (IOException e) {
+                Log.e("TimelineResultSource", "Couldn't release video", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.cloudgazer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * TraceRecorder appends inference records to a trace file so real sessions can be replayed later
+ * with the replay tool in the {@code replay} module.
+ * <p>
+ * Records are encoded into a direct buffer and written to the file channel only when the buffer
+ * fills up or the recorder is flushed, so recording adds no file I/O to most inferences. The file
+ * is capped at a maximum size; once it is reached, further records are dropped.
+ */
+public class TraceRecorder implements Closeable {
+    private static final int BUFFER_BYTES = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long maxBytes;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private long size;
+    private boolean full;
+
+    /**
+     * Opens a trace for appending, creating it if it doesn't exist.
+     *
+     * @param file     the trace file
+     * @param maxBytes the size the file may grow to
+     * @throws IOException if the file couldn't be opened or isn't a trace
+     */
+    public TraceRecorder(File file, long maxBytes) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.maxBytes = maxBytes;
+        this.size = channel.size();
+        if (size == 0) {
+            InferenceTrace.writeHeader(buffer);
+            size = InferenceTrace.HEADER_BYTES;
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(InferenceTrace.HEADER_BYTES);
+            channel.read(header, 0);
+            header.flip();
+            try {
+                InferenceTrace.checkHeader(header);
+            } catch (IllegalArgumentException e) {
+                channel.close();
+                throw new IOException(file + " is not an inference trace", e);
+            }
+            // Drop a record cut short by a previous session, so new records follow a complete one.
+            long end = InferenceTrace.endOfCompleteRecords(channel);
+            if (end < size) {
+                channel.truncate(end);
+                size = end;
+            }
+            channel.position(size);
+        }
+    }
+
+    /**
+     * Appends a record unless the size cap would be exceeded.
+     *
+     * @param record the record to append
+     * @return true if the record was kept, false if the trace is full
+     * @throws IOException if the buffered records couldn't be written
+     */
+    public synchronized boolean record(InferenceTrace.Record record) throws IOException {
+        int recordBytes = InferenceTrace.sizeOf(record);
+        if (full || size + recordBytes > maxBytes) {
+            full = true;
+            return false;
+        }
+        if (recordBytes > buffer.remaining()) {
+            flush();
+        }
+        if (recordBytes > buffer.capacity()) {
+            // Too large to buffer; encode it on its own.
+            ByteBuffer large = ByteBuffer.allocate(recordBytes);
+            InferenceTrace.write(large, record);
+            large.flip();
+            writeFully(large);
+        } else {
+            InferenceTrace.write(buffer, record);
+        }
+        size += recordBytes;
+        return true;
+    }
+
+    /**
+     * Returns whether the size cap has been reached.
+     *
+     * @return true if further records are dropped
+     */
+    public synchronized boolean isFull() {
+        return full;
+    }
+
+    /**
+     * Writes the buffered records to the file.
+     *
+     * @throws IOException if the records couldn't be written
+     */
+    public synchronized void flush() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
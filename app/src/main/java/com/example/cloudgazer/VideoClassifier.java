@@ -0,0 +1,307 @@
+package com.example.cloudgazer;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * VideoClassifier turns a stream of frames into a timeline of cloud types.
+ * <p>
+ * Frames are decoded and preprocessed on a decoder thread while the calling thread runs the
+ * model on batches of frames. The two stages are connected by a bounded queue, so decoding and
+ * inference overlap and at most {@code queueCapacity + batchSize} frames are held at once,
+ * however long the recording is.
+ * <p>
+ * A frame that can't be decoded or preprocessed is skipped and counted rather than aborting the
+ * whole video; only a run of consecutive failures, which means the source itself is broken, stops
+ * classification. Classification is cancelled by interrupting the calling thread.
+ * <p>
+ * A {@link FrameFilter} can be set to drop frames before they reach the model, such as frames
+ * that don't show the sky. Filtered frames get no timeline entry. The time spent filtering and
+ * the forward time per classified frame are measured, so the time the filter saved can be
+ * reported with {@link #getFilterSavingNanos()}.
+ */
+public class VideoClassifier {
+
+    /**
+     * Preprocesses a decoded frame into the model's input size.
+     */
+    public interface Preprocessor {
+        Bitmap preprocess(Bitmap frame);
+    }
+
+    /**
+     * Runs the model on a batch of preprocessed frames.
+     */
+    public interface BatchClassifier {
+        /**
+         * @param batch the preprocessed frames
+         * @return the raw scores of each frame, in the order of the batch
+         * @throws Exception if inference failed
+         */
+        float[][] classify(List<Bitmap> batch) throws Exception;
+    }
+
+    /**
+     * Decides on the decoder thread whether a preprocessed frame is worth classifying.
+     */
+    public interface FrameFilter {
+        /**
+         * @param frame the preprocessed frame
+         * @return false to drop the frame without running the model on it
+         */
+        boolean accept(Bitmap frame);
+    }
+
+    /**
+     * The top-1 cloud type found at one point of the recording.
+     */
+    public static final class TimelineEntry {
+        public final long timestampMs;
+        public final int classIndex;
+        public final float probability;
+
+        TimelineEntry(long timestampMs, int classIndex, float probability) {
+            this.timestampMs = timestampMs;
+            this.classIndex = classIndex;
+            this.probability = probability;
+        }
+    }
+
+    /**
+     * Receives timeline entries as soon as their batch has been classified.
+     */
+    public interface TimelineListener {
+        /**
+         * @param entries the entries of one batch, in timestamp order
+         */
+        void onEntries(List<TimelineEntry> entries);
+    }
+
+    // Marks the end of the frame stream on the queue.
+    private static final FrameSource.Frame END = new FrameSource.Frame(-1, null);
+    // Number of frames in a row that may fail before the source is considered broken.
+    static final int MAX_CONSECUTIVE_BAD_FRAMES = 5;
+
+    private final Preprocessor preprocessor;
+    private final BatchClassifier classifier;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final AtomicInteger skippedFrames = new AtomicInteger();
+    private final AtomicInteger filteredFrames = new AtomicInteger();
+    private final AtomicLong filterNanos = new AtomicLong();
+    private final AtomicInteger classifiedFrames = new AtomicInteger();
+    private final AtomicLong forwardNanos = new AtomicLong();
+    private volatile FrameFilter frameFilter;
+
+    /**
+     * Constructor for the VideoClassifier.
+     *
+     * @param preprocessor  resizes and crops frames for the model
+     * @param classifier    runs the model on a batch of frames
+     * @param batchSize     number of frames per forward pass
+     * @param queueCapacity number of preprocessed frames that may wait for inference
+     */
+    public VideoClassifier(Preprocessor preprocessor, BatchClassifier classifier, int batchSize, int queueCapacity) {
+        this.preprocessor = preprocessor;
+        this.classifier = classifier;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sets the filter that drops frames before inference. No frames are filtered by default.
+     *
+     * @param frameFilter the filter, or null to classify every frame
+     */
+    public void setFrameFilter(FrameFilter frameFilter) {
+        this.frameFilter = frameFilter;
+    }
+
+    /**
+     * Classifies every frame of the source. Blocks until the whole source has been processed,
+     * so this should not be called on the main thread. The source is closed afterwards.
+     *
+     * @param source the frames to classify
+     * @return the top-1 cloud type of each frame, in timestamp order
+     * @throws InterruptedException if the calling thread was interrupted
+     * @throws Exception            if the source failed repeatedly or inference failed
+     */
+    public List<TimelineEntry> classify(FrameSource source) throws Exception {
+        List<TimelineEntry> timeline = new ArrayList<>();
+        classify(source, timeline::addAll);
+        return timeline;
+    }
+
+    /**
+     * Classifies every frame of the source and streams the timeline to a listener, batch by
+     * batch, without holding on to it. Blocks until the whole source has been processed, so this
+     * should not be called on the main thread. The source is closed afterwards.
+     *
+     * @param source   the frames to classify
+     * @param listener receives the top-1 cloud type of each frame, in timestamp order
+     * @throws InterruptedException if the calling thread was interrupted; the listener receives
+     *                              no entries afterwards
+     * @throws Exception            if the source failed repeatedly or inference failed
+     */
+    public void classify(FrameSource source, TimelineListener listener) throws Exception {
+        skippedFrames.set(0);
+        filteredFrames.set(0);
+        filterNanos.set(0);
+        classifiedFrames.set(0);
+        forwardNanos.set(0);
+        FrameFilter filter = frameFilter;
+        BlockingQueue<FrameSource.Frame> queue = new ArrayBlockingQueue<>(queueCapacity);
+        Exception[] decodeError = new Exception[1];
+        Thread decoder = new Thread(() -> {
+            boolean interrupted = false;
+            try (FrameSource frames = source) {
+                int badFrames = 0;
+                while (true) {
+                    FrameSource.Frame frame;
+                    Bitmap processed;
+                    try {
+                        frame = frames.next();
+                        if (frame == null) {
+                            break;
+                        }
+                        processed = preprocessor.preprocess(frame.bitmap);
+                    } catch (IOException | RuntimeException e) {
+                        if (++badFrames > MAX_CONSECUTIVE_BAD_FRAMES) {
+                            throw e;
+                        }
+                        skippedFrames.incrementAndGet();
+                        continue;
+                    }
+                    badFrames = 0;
+                    if (processed != frame.bitmap) {
+                        frame.bitmap.recycle();
+                    }
+                    if (filter != null) {
+                        long filterStart = System.nanoTime();
+                        boolean accepted = filter.accept(processed);
+                        filterNanos.addAndGet(System.nanoTime() - filterStart);
+                        if (!accepted) {
+                            filteredFrames.incrementAndGet();
+                            processed.recycle();
+                            continue;
+                        }
+                    }
+                    queue.put(new FrameSource.Frame(frame.timestampMs, processed));
+                }
+            } catch (IOException | RuntimeException e) {
+                decodeError[0] = e;
+            } catch (InterruptedException e) {
+                // The consumer has stopped and no longer waits for the end marker.
+                interrupted = true;
+            } finally {
+                if (!interrupted) {
+                    putEnd(queue);
+                }
+            }
+        }, "VideoDecoder");
+        decoder.start();
+
+        List<FrameSource.Frame> batch = new ArrayList<>(batchSize);
+        try {
+            boolean ended = false;
+            while (!ended) {
+                // Wait for one frame, then take whatever else is ready to fill the batch.
+                FrameSource.Frame frame = queue.take();
+                while (frame != END) {
+                    batch.add(frame);
+                    if (batch.size() == batchSize) {
+                        break;
+                    }
+                    frame = queue.poll();
+                    if (frame == null) {
+                        break;
+                    }
+                }
+                ended = frame == END;
+                if (Thread.interrupted()) {
+                    throw new InterruptedException("Video classification cancelled");
+                }
+                if (!batch.isEmpty()) {
+                    classifyBatch(batch, listener);
+                    batch.clear();
+                }
+            }
+        } finally {
+            decoder.interrupt();
+            decoder.join();
+        }
+        if (decodeError[0] != null) {
+            throw decodeError[0];
+        }
+    }
+
+    /**
+     * Returns the number of frames skipped by the last classification because they couldn't be
+     * decoded or preprocessed.
+     *
+     * @return the number of skipped frames
+     */
+    public int getSkippedFrameCount() {
+        return skippedFrames.get();
+    }
+
+    /**
+     * Returns the number of frames the frame filter dropped in the last classification.
+     *
+     * @return the number of filtered frames
+     */
+    public int getFilteredFrameCount() {
+        return filteredFrames.get();
+    }
+
+    /**
+     * Returns the time the frame filter saved in the last classification: the forward time the
+     * filtered frames would have taken, at the mean measured per classified frame, minus the time
+     * spent running the filter on every frame. Negative if the filter cost more than it saved.
+     *
+     * @return the saved time, in nanoseconds, or 0 if no frame was classified
+     */
+    public long getFilterSavingNanos() {
+        int classified = classifiedFrames.get();
+        if (classified == 0) {
+            return 0;
+        }
+        return forwardNanos.get() / classified * filteredFrames.get() - filterNanos.get();
+    }
+
+    private void classifyBatch(List<FrameSource.Frame> batch, TimelineListener listener) throws Exception {
+        List<Bitmap> bitmaps = new ArrayList<>(batch.size());
+        for (FrameSource.Frame frame : batch) {
+            bitmaps.add(frame.bitmap);
+        }
+        long start = System.nanoTime();
+        float[][] scores = classifier.classify(bitmaps);
+        forwardNanos.addAndGet(System.nanoTime() - start);
+        classifiedFrames.addAndGet(batch.size());
+        if (Thread.interrupted()) {
+            // Cancelled during the forward pass; its results are no longer wanted.
+            throw new InterruptedException("Video classification cancelled");
+        }
+        List<TimelineEntry> entries = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            int top = Scores.argmax(scores[i]);
+            entries.add(new TimelineEntry(batch.get(i).timestampMs, top, Scores.softmax(scores[i])[top]));
+        }
+        listener.onEntries(entries);
+    }
+
+    private static void putEnd(BlockingQueue<FrameSource.Frame> queue) {
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            // The consumer has stopped and no longer waits for the end marker.
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.cloudgazer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * VideoFrameSource samples frames from a video at a fixed interval.
+ * <p>
+ * Only sync (key) frames are decoded, since they don't depend on the frames before them and
+ * decode much faster than the frames in between. The sync sample times of the video track are
+ * read once with {@link MediaExtractor}, without decoding anything, and each sample time is
+ * mapped to the keyframe nearest to it. Every frame is reported with its keyframe's real
+ * timestamp, and a keyframe nearest to several sample times, as happens when keyframes are
+ * further apart than the sample interval, is decoded only once. If the sync samples can't be
+ * read, the frame closest to each sample time is decoded instead. Frames are decoded directly at
+ * a reduced resolution instead of the full video size.
+ */
+public class VideoFrameSource implements FrameSource {
+    private static final String TAG = "VideoFrameSource";
+
+    private final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+    private final Context context;
+    private final Uri videoUri;
+    private final long sampleIntervalMs;
+    private final int maxFrameSize;
+    private final long durationMs;
+    // Times of the frames to decode, in microseconds; read on the first call to next().
+    private long[] frameTimesUs;
+    private boolean keyframes;
+    private int nextFrame;
+
+    /**
+     * Constructor for the VideoFrameSource.
+     *
+     * @param context          the context used to open the video
+     * @param videoUri         the uri of the video
+     * @param sampleIntervalMs time between two sampled frames, in milliseconds
+     * @param maxFrameSize     the largest width or height a frame is decoded at
+     * @throws IOException if the video couldn't be opened
+     */
+    public VideoFrameSource(Context context, Uri videoUri, long sampleIntervalMs, int maxFrameSize) throws IOException {
+        this.context = context;
+        this.videoUri = videoUri;
+        this.sampleIntervalMs = sampleIntervalMs;
+        this.maxFrameSize = maxFrameSize;
+        try {
+            retriever.setDataSource(context, videoUri);
+        } catch (RuntimeException e) {
+            retriever.release();
+            throw new IOException("Couldn't open video " + videoUri, e);
+        }
+        String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+        this.durationMs = duration == null ? 0 : Long.parseLong(duration);
+    }
+
+    /**
+     * Decodes the keyframe for the next sample time. The sampling position advances even if the
+     * frame can't be decoded, so the following call moves on to the next keyframe.
+     *
+     * @return the next frame, or null when the end of the video is reached
+     * @throws IOException if the frame couldn't be decoded
+     */
+    @Override
+    public Frame next() throws IOException {
+        if (frameTimesUs == null) {
+            long[] syncTimesUs = readSyncSampleTimes();
+            keyframes = syncTimesUs.length > 0;
+            frameTimesUs = keyframes
+                    ? nearestKeyframes(syncTimesUs, durationMs * 1000, sampleIntervalMs * 1000)
+                    : sampleTimes(durationMs * 1000, sampleIntervalMs * 1000);
+        }
+        if (nextFrame >= frameTimesUs.length) {
+            return null;
+        }
+        long timeUs = frameTimesUs[nextFrame++];
+        return new Frame(timeUs / 1000, decode(timeUs, keyframes
+                ? MediaMetadataRetriever.OPTION_CLOSEST_SYNC : MediaMetadataRetriever.OPTION_CLOSEST));
+    }
+
+    /**
+     * Decodes the keyframe nearest to a given time, independently of the sampling position. Used
+     * for thumbnails, where a nearby keyframe is good enough and much cheaper than the exact frame.
+     *
+     * @param timestampMs the time of the frame, in milliseconds
+     * @return the frame, decoded at the reduced resolution
+     * @throws IOException if the frame couldn't be decoded
+     */
+    public Bitmap frameAt(long timestampMs) throws IOException {
+        return decode(timestampMs * 1000, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+    }
+
+    /**
+     * Decodes a frame at the reduced resolution.
+     *
+     * @param timeUs the time of the frame, in microseconds
+     * @param option how the frame is chosen relative to the time
+     * @return the frame
+     * @throws IOException if the frame couldn't be decoded
+     */
+    private synchronized Bitmap decode(long timeUs, int option) throws IOException {
+        Bitmap bitmap = retriever.getScaledFrameAtTime(timeUs, option, maxFrameSize, maxFrameSize);
+        if (bitmap == null) {
+            throw new IOException("Couldn't decode frame at " + timeUs / 1000 + " ms");
+        }
+        return bitmap;
+    }
+
+    /**
+     * Reads the times of the sync samples of the video track, stepping from one sync sample to
+     * the next without reading or decoding the samples in between.
+     *
+     * @return the sync sample times in increasing order, in microseconds, or an empty array if
+     * they couldn't be read
+     */
+    private long[] readSyncSampleTimes() {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(context, videoUri, null);
+            int track = -1;
+            for (int i = 0; i < extractor.getTrackCount() && track < 0; i++) {
+                String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("video/")) {
+                    track = i;
+                }
+            }
+            if (track < 0) {
+                return new long[0];
+            }
+            extractor.selectTrack(track);
+            long[] times = new long[64];
+            int count = 0;
+            long seekUs = 0;
+            while (true) {
+                extractor.seekTo(seekUs, MediaExtractor.SEEK_TO_NEXT_SYNC);
+                long sampleUs = extractor.getSampleTime();
+                // Past the last sync sample, some extractors stay on it instead of ending
+                if (sampleUs < 0 || (count > 0 && sampleUs <= times[count - 1])) {
+                    break;
+                }
+                if (count == times.length) {
+                    times = Arrays.copyOf(times, count * 2);
+                }
+                times[count++] = sampleUs;
+                seekUs = sampleUs + 1;
+            }
+            return Arrays.copyOf(times, count);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Couldn't read the keyframes of " + videoUri + ", decoding exact frames", e);
+            return new long[0];
+        } finally {
+            extractor.release();
+        }
+    }
+
+    /**
+     * Maps every sample time of a video to the keyframe nearest to it. Keyframes nearest to
+     * several consecutive sample times are only returned once.
+     *
+     * @param keyframeTimesUs the keyframe times in increasing order, in microseconds
+     * @param durationUs      the duration of the video, in microseconds
+     * @param intervalUs      time between two sample times, in microseconds
+     * @return the keyframe times to decode, in increasing order
+     */
+    static long[] nearestKeyframes(long[] keyframeTimesUs, long durationUs, long intervalUs) {
+        long[] frames = new long[keyframeTimesUs.length];
+        int count = 0;
+        int keyframe = 0;
+        for (long sampleUs = 0; sampleUs <= durationUs; sampleUs += intervalUs) {
+            // Sample times only increase, so the nearest keyframe never moves backwards
+            while (keyframe + 1 < keyframeTimesUs.length
+                    && keyframeTimesUs[keyframe + 1] - sampleUs <= sampleUs - keyframeTimesUs[keyframe]) {
+                keyframe++;
+            }
+            if (count == 0 || frames[count - 1] != keyframeTimesUs[keyframe]) {
+                frames[count++] = keyframeTimesUs[keyframe];
+            }
+        }
+        return Arrays.copyOf(frames, count);
+    }
+
+    /**
+     * Returns the sample times of a video, for when its keyframes are unknown.
+     *
+     * @param durationUs the duration of the video, in microseconds
+     * @param intervalUs time between two sample times, in microseconds
+     * @return the sample times, starting at 0
+     */
+    static long[] sampleTimes(long durationUs, long intervalUs) {
+        long[] times = new long[(int) (durationUs / intervalUs) + 1];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = i * intervalUs;
+        }
+        return times;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        retriever.release();
+    }
+}
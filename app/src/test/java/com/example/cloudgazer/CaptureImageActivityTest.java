@@ -3,23 +3,38 @@ package com.example.cloudgazer;
 import android.graphics.Bitmap;
 
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * This class performs unit tests on the CaptureImageActivity using Robolectric,
  * enabling Android framework dependencies to be managed within the JVM.
- * It verifies the functionality of image resizing, cropping and softmax computation.
+ * It verifies the functionality of image resizing, cropping, softmax computation, the decision
+ * to replace a preview result, the outputs shown when it is kept and when assets are copied to app storage.
  */
 @RunWith(RobolectricTestRunner.class)
 @Config(sdk = {28})
 public class CaptureImageActivityTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     /**
      * Tests the resizeAndCropImage method to ensure it correctly resizes and crops an image.
      * This method verifies that the input Bitmap is resized and cropped to the specific dimensions (224x224).
@@ -39,6 +54,22 @@ public class CaptureImageActivityTest {
         assertEquals(224, resized.getHeight());
     }
 
+    /**
+     * Tests that resizeAndCropImage honours a runtime input size, as used by the thermal governor.
+     */
+    @Test
+    public void testResizeAndCropImageToGivenSize() {
+        Bitmap original = Bitmap.createBitmap(333, 517, Bitmap.Config.ARGB_8888);
+
+        CaptureImageActivity activity = new CaptureImageActivity();
+
+        for (int size : new int[]{224, 192, 160}) {
+            Bitmap resized = activity.resizeAndCropImage(original, size);
+            assertEquals(size, resized.getWidth());
+            assertEquals(size, resized.getHeight());
+        }
+    }
+
     /**
      * Tests the softmax function to ensure it correctly computes the probabilities from given scores.
      * It verifies the computed probabilities against manually calculated expected values,
@@ -69,5 +100,56 @@ public class CaptureImageActivityTest {
         }
         assertEquals("Sum of probabilities should be 1", 1.0f, sum, 0.001);
     }
-}
 
+    /**
+     * Tests that the full image's result replaces the preview only if the ranking changed.
+     */
+    @Test
+    public void testReplacesPreviewOnlyWhenRankingChanged() {
+        int[] previewRanking = {2, 0, 1};
+
+        // Nothing was shown from the thumbnail
+        assertTrue(CaptureImageActivity.replacesPreview(null, new float[]{0.1f, 0.2f, 0.7f, 0f}));
+        // Same ranking, different scores: the preview is kept
+        assertFalse(CaptureImageActivity.replacesPreview(previewRanking, new float[]{2f, 1f, 5f, 0f}));
+        // Top two swapped
+        assertTrue(CaptureImageActivity.replacesPreview(previewRanking, new float[]{5f, 1f, 2f, 0f}));
+        // A class that wasn't shown enters the ranking
+        assertTrue(CaptureImageActivity.replacesPreview(previewRanking, new float[]{2f, 1f, 5f, 3f}));
+    }
+
+    /**
+     * Tests that a kept preview ranking shows the thumbnail's genus scores with the full image's
+     * other heads.
+     */
+    @Test
+    public void testWithPreviewScoresKeepsOtherHeadsOfFullImage() {
+        float[] previewScores = {0.1f, 0.2f, 0.7f};
+        Map<String, float[]> outputs = new LinkedHashMap<>();
+        outputs.put("genus", new float[]{0.2f, 0.1f, 0.9f});
+        outputs.put("precipitation", new float[]{1.5f});
+
+        Map<String, float[]> combined = CaptureImageActivity.withPreviewScores(outputs, previewScores, "genus");
+
+        assertSame(previewScores, combined.get("genus"));
+        assertSame(outputs.get("precipitation"), combined.get("precipitation"));
+        assertEquals(Arrays.asList("genus", "precipitation"), new ArrayList<>(combined.keySet()));
+        // The full image's outputs are still intact for caching
+        assertEquals(0.9f, outputs.get("genus")[2], 0f);
+    }
+
+    /**
+     * Tests that an asset is copied when there is no copy yet or the copy predates the APK.
+     */
+    @Test
+    public void testNeedsCopyWhenMissingOrOlderThanApk() throws Exception {
+        File copy = new File(folder.getRoot(), "model.json");
+        assertTrue(CaptureImageActivity.needsCopy(copy, 0L));
+
+        assertTrue(copy.createNewFile());
+        assertTrue(copy.setLastModified(2_000_000L));
+        assertFalse(CaptureImageActivity.needsCopy(copy, 1_000_000L));
+        assertFalse(CaptureImageActivity.needsCopy(copy, 2_000_000L));
+        assertTrue(CaptureImageActivity.needsCopy(copy, 3_000_000L));
+    }
+}
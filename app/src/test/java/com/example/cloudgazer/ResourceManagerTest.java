@@ -0,0 +1,334 @@
+package com.example.cloudgazer;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.pytorch.Module;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * This class tests how the ResourceManager responds to memory pressure.
+ * It verifies that the model is loaded lazily and that each trim level releases the expected resources.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {28})
+public class ResourceManagerTest {
+
+    private static final int BUDGET_BYTES = 1024 * 1024;
+
+    private AtomicInteger loads;
+    private AtomicInteger downgrades;
+    private ResourceManager manager;
+
+    /**
+     * Sets up a manager with a 1 MB budget and a loader that counts its invocations and returns
+     * a new mocked model each time.
+     */
+    @Before
+    public void setUp() {
+        loads = new AtomicInteger();
+        downgrades = new AtomicInteger();
+        manager = new ResourceManager(() -> {
+            loads.incrementAndGet();
+            return loadedModel();
+        }, BUDGET_BYTES);
+        manager.setDisplayDowngrader(downgrades::incrementAndGet);
+    }
+
+    /**
+     * Tests that creating the manager doesn't load the model.
+     */
+    @Test
+    public void model_isNotLoadedUntilRequested() throws Exception {
+        assertEquals(0, loads.get());
+        assertFalse(manager.isModelLoaded());
+        ResourceManager.LoadedModel model = manager.getModel();
+        assertNotNull(model);
+        assertTrue(manager.isModelLoaded());
+        assertEquals(1, loads.get());
+
+        // Later requests reuse the resident model
+        assertSame(model, manager.getModel());
+        assertEquals(1, loads.get());
+    }
+
+    /**
+     * Tests that a critical trim level unloads the model and that the next request reloads it.
+     */
+    @Test
+    public void criticalTrim_unloadsModelUntilNextRequest() throws Exception {
+        ResourceManager.LoadedModel first = manager.getModel();
+        assertEquals(1, loads.get());
+
+        manager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+        assertFalse(manager.isModelLoaded());
+        assertEquals(1, loads.get());
+
+        ResourceManager.LoadedModel second = manager.getModel();
+        assertTrue(manager.isModelLoaded());
+        assertNotSame(first, second);
+        assertEquals(2, loads.get());
+    }
+
+    /**
+     * Tests that onLowMemory releases everything like the most severe trim level, and that the
+     * model is reloaded lazily afterwards.
+     */
+    @Test
+    public void lowMemory_unloadsModelAndEvictsCaches() throws Exception {
+        ResourceManager.LoadedModel model = manager.getModel();
+        manager.putBitmap("a", Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888));
+        manager.putResult("a", new float[]{1f, 2f, 3f}, model);
+        assertEquals(1, loads.get());
+
+        manager.onLowMemory();
+
+        assertFalse(manager.isModelLoaded());
+        assertEquals(0, manager.cacheSizeBytes());
+        assertEquals(1, downgrades.get());
+        assertEquals(1, loads.get());
+
+        manager.getModel();
+        assertEquals(2, loads.get());
+    }
+
+    /**
+     * Tests that UI_HIDDEN halves caches that are more than half full, evicting the least
+     * recently used entries first.
+     */
+    @Test
+    public void uiHiddenTrim_halvesCachesOverHalfFull() throws Exception {
+        ResourceManager.LoadedModel model = manager.getModel();
+        // 3 x 256 KB of bitmaps is over half of the bitmap share of the budget
+        for (int i = 0; i < 3; i++) {
+            manager.putBitmap("image" + i, Bitmap.createBitmap(256, 256, Bitmap.Config.ARGB_8888));
+        }
+        // 3 x 16 KB of results is over half of the 64 KB result share
+        for (int i = 0; i < 3; i++) {
+            manager.putResult("result" + i, new float[4096], model);
+        }
+        assertNotNull(manager.getBitmap("image0"));
+        assertNotNull(manager.getResult("result0", model));
+        int before = manager.cacheSizeBytes();
+
+        manager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+
+        // image0 and result0 were just used, so the entries after them are evicted first
+        assertNotNull(manager.getBitmap("image0"));
+        assertNull(manager.getBitmap("image1"));
+        assertNull(manager.getBitmap("image2"));
+        assertNotNull(manager.getResult("result0", model));
+        assertNull(manager.getResult("result1", model));
+        assertNotNull(manager.getResult("result2", model));
+        assertTrue(manager.cacheSizeBytes() <= BUDGET_BYTES / 2);
+        assertTrue(manager.cacheSizeBytes() < before);
+        assertEquals(0, downgrades.get());
+    }
+
+    /**
+     * Tests that swapping the model serves the new one without invoking the loader and returns
+     * the model it replaced.
+     */
+    @Test
+    public void swapModel_replacesModelWithoutLoading() throws Exception {
+        ResourceManager.LoadedModel promoted = loadedModel();
+
+        assertNull(manager.swapModel(promoted));
+        assertTrue(manager.isModelLoaded());
+        assertSame(promoted, manager.getModel());
+        assertEquals(0, loads.get());
+
+        ResourceManager.LoadedModel next = loadedModel();
+        assertSame(promoted, manager.swapModel(next));
+        assertSame(next, manager.getModel());
+        assertSame(next, manager.getLoadedModel());
+    }
+
+    /**
+     * Tests that unloading and swapping don't wait for a load that is still reading the model,
+     * and that the load doesn't reinstate its model over the swapped-in one.
+     */
+    @Test
+    public void unloadAndSwap_doNotWaitForRunningLoad() throws Exception {
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch finishLoad = new CountDownLatch(1);
+        ResourceManager.LoadedModel loaded = loadedModel();
+        ResourceManager slowManager = new ResourceManager(() -> {
+            loadStarted.countDown();
+            finishLoad.await();
+            return loaded;
+        }, BUDGET_BYTES);
+        AtomicReference<ResourceManager.LoadedModel> returned = new AtomicReference<>();
+        Thread loader = new Thread(() -> {
+            try {
+                returned.set(slowManager.getModel());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        loader.start();
+        assertTrue(loadStarted.await(5, TimeUnit.SECONDS));
+
+        // Both calls return while the loader is still blocked inside the load
+        Thread trimmer = new Thread(() -> {
+            slowManager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+            slowManager.swapModel(loadedModel());
+        });
+        trimmer.start();
+        trimmer.join(5000);
+        assertFalse(trimmer.isAlive());
+
+        ResourceManager.LoadedModel promoted = loadedModel();
+        slowManager.swapModel(promoted);
+        finishLoad.countDown();
+        loader.join(5000);
+
+        assertSame(promoted, returned.get());
+        assertSame(promoted, slowManager.getModel());
+    }
+
+    /**
+     * Tests that a model loaded while the manager was being unloaded is handed to its caller but
+     * not kept resident.
+     */
+    @Test
+    public void unloadDuringLoad_doesNotKeepLoadedModel() throws Exception {
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch finishLoad = new CountDownLatch(1);
+        AtomicInteger slowLoads = new AtomicInteger();
+        ResourceManager slowManager = new ResourceManager(() -> {
+            if (slowLoads.incrementAndGet() == 1) {
+                loadStarted.countDown();
+                finishLoad.await();
+            }
+            return loadedModel();
+        }, BUDGET_BYTES);
+        AtomicReference<ResourceManager.LoadedModel> returned = new AtomicReference<>();
+        Thread loader = new Thread(() -> {
+            try {
+                returned.set(slowManager.getModel());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        loader.start();
+        assertTrue(loadStarted.await(5, TimeUnit.SECONDS));
+
+        slowManager.unloadModel();
+        finishLoad.countDown();
+        loader.join(5000);
+
+        assertNotNull(returned.get());
+        assertFalse(slowManager.isModelLoaded());
+        assertNotSame(returned.get(), slowManager.getModel());
+        assertEquals(2, slowLoads.get());
+    }
+
+    /**
+     * Tests that swapping the model drops the results of the previous model but keeps the cached
+     * images.
+     */
+    @Test
+    public void swapModel_evictsResultsButKeepsBitmaps() throws Exception {
+        ResourceManager.LoadedModel model = manager.getModel();
+        manager.putBitmap("a", Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888));
+        assertTrue(manager.putResult("a", new float[]{1f, 2f, 3f}, model));
+
+        ResourceManager.LoadedModel promoted = loadedModel();
+        manager.swapModel(promoted);
+
+        assertNotNull(manager.getBitmap("a"));
+        assertNull(manager.getResult("a", promoted));
+    }
+
+    /**
+     * Tests that a result produced by a model that was swapped out while it ran is not cached,
+     * and that cached results are not handed out for a stale snapshot.
+     */
+    @Test
+    public void putResult_dropsResultsOfSwappedModel() throws Exception {
+        ResourceManager.LoadedModel old = manager.getModel();
+        ResourceManager.LoadedModel promoted = loadedModel();
+        manager.swapModel(promoted);
+
+        assertFalse(manager.putResult("a", new float[]{1f, 2f, 3f}, old));
+        assertNull(manager.getResult("a", promoted));
+
+        assertTrue(manager.putResult("a", new float[]{4f, 5f, 6f}, promoted));
+        assertNull(manager.getResult("a", old));
+        assertNotNull(manager.getResult("a", promoted));
+    }
+
+    /**
+     * Tests that a moderate trim level keeps recently used entries in the caches.
+     */
+    @Test
+    public void moderateTrim_keepsRecentEntries() throws Exception {
+        ResourceManager.LoadedModel model = manager.getModel();
+        manager.putBitmap("a", Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888));
+        manager.putResult("a", new float[]{1f, 2f, 3f}, model);
+
+        manager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+
+        assertNotNull(manager.getBitmap("a"));
+        assertNotNull(manager.getResult("a", model));
+        assertEquals(0, downgrades.get());
+    }
+
+    /**
+     * Tests that a background trim level empties the caches and downgrades the displayed image.
+     */
+    @Test
+    public void backgroundTrim_evictsCachesAndDowngradesDisplay() throws Exception {
+        ResourceManager.LoadedModel model = manager.getModel();
+        manager.putBitmap("a", Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888));
+        manager.putResult("a", new float[]{1f, 2f, 3f}, model);
+
+        manager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+
+        assertNull(manager.getBitmap("a"));
+        assertNull(manager.getResult("a", model));
+        assertEquals(0, manager.cacheSizeBytes());
+        assertEquals(1, downgrades.get());
+    }
+
+    /**
+     * Tests that the bitmap cache never grows beyond its share of the budget.
+     */
+    @Test
+    public void bitmapCache_staysWithinBudget() {
+        for (int i = 0; i < 10; i++) {
+            // 256 x 256 x 4 bytes = 256 KB per bitmap
+            manager.putBitmap("image" + i, Bitmap.createBitmap(256, 256, Bitmap.Config.ARGB_8888));
+        }
+        assertNull(manager.getBitmap("image0"));
+        assertNotNull(manager.getBitmap("image9"));
+    }
+
+    /**
+     * Creates a mocked model together with a mocked manifest.
+     *
+     * @return the model snapshot
+     */
+    private static ResourceManager.LoadedModel loadedModel() {
+        return new ResourceManager.LoadedModel(mock(Module.class), mock(ModelManifest.class));
+    }
+}
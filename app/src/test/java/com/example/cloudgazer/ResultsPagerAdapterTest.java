@@ -1,16 +1,39 @@
 package com.example.cloudgazer;
 
+import android.widget.FrameLayout;
+
+import androidx.recyclerview.widget.RecyclerView;
+
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * This class tests the functionality of the ResultsPagerAdapter.
  * It verifies that the adapter correctly reports the number of items it manages,
- * based on the data it is initialized with.
+ * based on the data it is initialized with, and that new results are applied as range updates:
+ * replaced results rebind pages in place and a growing source is shown through range inserts,
+ * with page text built only when a page is bound.
  */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {28})
 public class ResultsPagerAdapterTest {
 
+    private static final int RESULTS = 10000;
+    private static final int BATCH_SIZE = 4;
+
     private ResultsPagerAdapter adapter;
 
     /**
@@ -53,4 +76,142 @@ public class ResultsPagerAdapterTest {
         adapter = new ResultsPagerAdapter(new String[]{"Result"}, new String[]{"Description"});
         assertEquals(1, adapter.getItemCount());
     }
+
+    /**
+     * Tests that 10k streamed results reach the adapter as range inserts, without rebinding
+     * pages already shown, and that only bound pages are formatted.
+     */
+    @Test
+    public void adapter_insertsAppendedRangesAndFormatsOnlyBoundPages() throws Exception {
+        File assets = new File("src/main/assets");
+        String json = new String(Files.readAllBytes(new File(assets, "model.json").toPath()), StandardCharsets.UTF_8);
+        ModelManifest manifest = ModelManifest.parse(json, assets);
+        TimelineResultSource timeline = new TimelineResultSource(manifest, null);
+        CountingSource counting = new CountingSource(timeline);
+        adapter = new ResultsPagerAdapter(new String[]{"Rank 1", "Rank 2", "Rank 3"},
+                new String[]{"A", "B", "C"});
+        RecordingObserver observer = new RecordingObserver();
+        adapter.registerAdapterDataObserver(observer);
+
+        adapter.setSource(counting);
+        assertEquals(0, adapter.getItemCount());
+        assertEquals(3, observer.removed);
+
+        for (int i = 0; i < RESULTS; i += BATCH_SIZE) {
+            timeline.append(batch(i, BATCH_SIZE));
+            adapter.notifyResultsAppended(counting);
+        }
+        // Results appended to a source that is no longer shown are ignored.
+        adapter.notifyResultsAppended(new TimelineResultSource(manifest, null));
+
+        assertEquals(RESULTS, adapter.getItemCount());
+        assertEquals(RESULTS, observer.inserted);
+        assertEquals(RESULTS / BATCH_SIZE, observer.insertCalls);
+        assertEquals(0, observer.changed);
+        assertEquals(0, counting.formatted);
+
+        FrameLayout parent = new FrameLayout(RuntimeEnvironment.getApplication());
+        ResultsPagerAdapter.ViewHolder holder = adapter.createViewHolder(parent, 0);
+        adapter.bindViewHolder(holder, RESULTS - 1);
+        assertEquals(1, counting.formatted);
+        assertTrue(holder.resultTextView.getText().toString().startsWith("166:39\n"));
+    }
+
+    /**
+     * Tests that replacing a longer result list with a shorter one rebinds the common pages in
+     * place and removes only the rest.
+     */
+    @Test
+    public void setResults_appliesRangeUpdates() {
+        adapter = new ResultsPagerAdapter(new String[]{"1", "2", "3", "4"},
+                new String[]{"a", "b", "c", "d"});
+        RecordingObserver observer = new RecordingObserver();
+        adapter.registerAdapterDataObserver(observer);
+
+        adapter.setResults(new String[]{"5", "6", "7"}, new String[]{"e", "f", "g"});
+
+        assertEquals(3, adapter.getItemCount());
+        assertEquals(3, observer.changed);
+        assertEquals(1, observer.removed);
+        assertEquals(0, observer.inserted);
+    }
+
+    /**
+     * Creates timeline entries one second apart.
+     *
+     * @param first the index of the first entry, which is also its timestamp in seconds
+     * @param count the number of entries
+     * @return the entries
+     */
+    private static List<VideoClassifier.TimelineEntry> batch(int first, int count) {
+        List<VideoClassifier.TimelineEntry> entries = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            entries.add(new VideoClassifier.TimelineEntry(i * 1000L, i % 11, 0.5f));
+        }
+        return entries;
+    }
+
+    /**
+     * Counts the pages whose text is built.
+     */
+    private static class CountingSource implements ResultSource {
+        private final ResultSource delegate;
+        int formatted;
+
+        CountingSource(ResultSource delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int size() {
+            return delegate.size();
+        }
+
+        @Override
+        public String getResult(int position) {
+            formatted++;
+            return delegate.getResult(position);
+        }
+
+        @Override
+        public String getDescription(int position) {
+            return delegate.getDescription(position);
+        }
+    }
+
+    /**
+     * Records the range updates an adapter announces.
+     */
+    private static class RecordingObserver extends RecyclerView.AdapterDataObserver {
+        int changed;
+        int inserted;
+        int insertCalls;
+        int removed;
+
+        @Override
+        public void onChanged() {
+            throw new AssertionError("The whole data set was invalidated");
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            changed += itemCount;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            onItemRangeChanged(positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            inserted += itemCount;
+            insertCalls++;
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            removed += itemCount;
+        }
+    }
 }
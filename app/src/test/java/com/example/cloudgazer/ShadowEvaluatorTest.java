@@ -0,0 +1,367 @@
+package com.example.cloudgazer;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.pytorch.IValue;
+import org.pytorch.Module;
+import org.pytorch.Tensor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * This class tests the ShadowEvaluator.
+ * It verifies the statistics that decide when a candidate model is promoted, how requests are
+ * sampled and prepared for the candidate, that shadow runs give way to user inference and to each
+ * other, and the promotion itself.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {28})
+public class ShadowEvaluatorTest {
+
+    private static final long TIMEOUT_MS = 5000;
+    // The active model ranks the second class first
+    private static final float[] ACTIVE_SCORES = {0.1f, 0.9f};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File candidateFile;
+    private File activeFile;
+    private Module candidate;
+    private AtomicInteger activeLoads;
+    private ResourceManager resourceManager;
+    private ModelManifest manifest;
+    private Bitmap image;
+    private Tensor input;
+    private ShadowEvaluator evaluator;
+
+    /**
+     * Sets up candidate and active files with their sidecars, a mocked candidate model that agrees
+     * with the active model and a resource manager whose loader only counts its invocations.
+     */
+    @Before
+    public void setUp() throws Exception {
+        candidateFile = folder.newFile("candidate.ptl");
+        write(candidateFile, "candidate");
+        write(new File(folder.getRoot(), "candidate.json"), manifestJson(2, "A", "B"));
+        activeFile = new File(folder.getRoot(), "model.ptl");
+        write(activeFile, "active");
+        write(new File(folder.getRoot(), "model.json"), manifestJson(2, "A", "B"));
+
+        candidate = mock(Module.class);
+        when(candidate.forward(any(IValue.class))).thenReturn(scores(0.2f, 0.8f));
+        activeLoads = new AtomicInteger();
+        resourceManager = new ResourceManager(() -> {
+            activeLoads.incrementAndGet();
+            return new ResourceManager.LoadedModel(mock(Module.class), manifest);
+        }, 1024 * 1024);
+        manifest = ModelManifest.parse(manifestJson(2, "A", "B"), folder.getRoot());
+        image = Bitmap.createBitmap(2, 2, Bitmap.Config.ARGB_8888);
+        input = Tensor.fromBlob(new float[12], new long[]{1, 3, 2, 2});
+    }
+
+    @After
+    public void tearDown() {
+        if (evaluator != null) {
+            evaluator.shutdown();
+        }
+    }
+
+    /**
+     * Tests that agreement and mean latencies are computed from the recorded runs.
+     */
+    @Test
+    public void stats_trackAgreementAndLatency() {
+        ShadowEvaluator.Stats stats = new ShadowEvaluator.Stats();
+        stats.record(true, 10_000_000L, 20_000_000L);
+        stats.record(false, 30_000_000L, 40_000_000L);
+
+        assertEquals(2, stats.getSamples());
+        assertEquals(0.5f, stats.getAgreement(), 1e-6);
+        assertEquals(20.0, stats.getMeanActiveMillis(), 1e-6);
+        assertEquals(30.0, stats.getMeanCandidateMillis(), 1e-6);
+    }
+
+    /**
+     * Tests that promotion requires both enough samples and enough agreement.
+     */
+    @Test
+    public void stats_requireSamplesAndAgreementForPromotion() {
+        ShadowEvaluator.Stats stats = new ShadowEvaluator.Stats();
+        stats.record(true, 1L, 1L);
+        assertFalse(stats.isReadyForPromotion(2, 0.9f));
+
+        stats.record(false, 1L, 1L);
+        assertFalse(stats.isReadyForPromotion(2, 0.9f));
+
+        stats.record(true, 1L, 1L);
+        stats.record(true, 1L, 1L);
+        assertTrue(stats.isReadyForPromotion(2, 0.7f));
+    }
+
+    /**
+     * Tests that requests aren't shadowed at a sample rate of zero.
+     */
+    @Test
+    public void maybeShadow_skipsUnsampledRequests() throws Exception {
+        evaluator = newEvaluator(0f, 100);
+
+        for (int i = 0; i < 10; i++) {
+            evaluator.maybeShadow(image, input, ACTIVE_SCORES, 1L, manifest);
+        }
+
+        verify(candidate, never()).forward(any(IValue.class));
+        assertEquals(0, evaluator.getStats().getSamples());
+    }
+
+    /**
+     * Tests that a sampled request is replayed on the candidate and its agreement recorded.
+     */
+    @Test
+    public void maybeShadow_runsSampledRequestsOnCandidate() throws Exception {
+        evaluator = newEvaluator(1f, 100);
+
+        evaluator.maybeShadow(image, input, ACTIVE_SCORES, 1L, manifest);
+
+        awaitCondition(() -> evaluator.getStats().getSamples() == 1);
+        verify(candidate).forward(any(IValue.class));
+        assertEquals(1f, evaluator.getStats().getAgreement(), 0f);
+    }
+
+    /**
+     * Tests that top-1 agreement is decided by label id when the candidate orders its labels
+     * differently.
+     */
+    @Test
+    public void maybeShadow_comparesTopLabelsById() throws Exception {
+        write(new File(folder.getRoot(), "candidate.json"), manifestJson(2, "B", "A"));
+        when(candidate.forward(any(IValue.class))).thenReturn(scores(0.8f, 0.2f));
+        evaluator = newEvaluator(1f, 100);
+
+        evaluator.maybeShadow(image, input, ACTIVE_SCORES, 1L, manifest);
+
+        awaitCondition(() -> evaluator.getStats().getSamples() == 1);
+        assertEquals(1f, evaluator.getStats().getAgreement(), 0f);
+    }
+
+    /**
+     * Tests that the image is preprocessed again for a candidate expecting a different input
+     * size, and that the active input tensor is reused otherwise.
+     */
+    @Test
+    public void maybeShadow_preprocessesForCandidateManifest() throws Exception {
+        ArgumentCaptor<IValue> inputs = ArgumentCaptor.forClass(IValue.class);
+        evaluator = newEvaluator(1f, 100);
+        evaluator.maybeShadow(image, input, ACTIVE_SCORES, 1L, manifest);
+        awaitCondition(() -> evaluator.getStats().getSamples() == 1 && !evaluator.isShadowRunning());
+        evaluator.shutdown();
+
+        write(new File(folder.getRoot(), "candidate.json"), manifestJson(4, "A", "B"));
+        evaluator = newEvaluator(1f, 100);
+        evaluator.maybeShadow(image, input, ACTIVE_SCORES, 1L, manifest);
+        awaitCondition(() -> evaluator.getStats().getSamples() == 1);
+
+        verify(candidate, times(2)).forward(inputs.capture());
+        assertSame(input, inputs.getAllValues().get(0).toTensor());
+        assertArrayEquals(new long[]{1, 3, 4, 4}, inputs.getAllValues().get(1).toTensor().shape());
+    }
+
+    /**
+     * Tests that a candidate without its manifest sidecar isn't loaded.
+     */
+    @Test
+    public void loadCandidate_ignoresCandidateWithoutSidecar() throws Exception {
+        assertTrue(new File(folder.getRoot(), "candidate.json").delete());
+        AtomicInteger candidateLoads = new AtomicInteger();
+        evaluator = new ShadowEvaluator(resourceManager, candidateFile, activeFile, 1f, 100, 1f, file -> {
+            candidateLoads.incrementAndGet();
+            return candidate;
+        });
+
+        evaluator.loadCandidate();
+        evaluator.maybeShadow(image, input, ACTIVE_SCORES, 1L, manifest);
+
+        assertFalse(evaluator.hasCandidate());
+        assertEquals(0, candidateLoads.get());
+    }
+
+    /**
+     * Tests that a sample arriving while a shadow run is in progress is dropped rather than queued.
+     */
+    @Test
+    public void maybeShadow_dropsSamplesWhileShadowThreadIsBusy() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(candidate.forward(any(IValue.class))).thenAnswer(invocation -> {
+            entered.countDown();
+            assertTrue(release.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            return scores(0.2f, 0.8f);
+        });
+        evaluator = newEvaluator(1f, 100);
+
+        evaluator.maybeShadow(image, input, ACTIVE_SCORES, 1L, manifest);
+        assertTrue(entered.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        evaluator.maybeShadow(image, input, ACTIVE_SCORES, 1L, manifest);
+        release.countDown();
+
+        awaitCondition(() -> evaluator.getStats().getSamples() == 1 && !evaluator.isShadowRunning());
+        verify(candidate, times(1)).forward(any(IValue.class));
+
+        // Once the shadow thread is idle, samples run again
+        evaluator.maybeShadow(image, input, ACTIVE_SCORES, 1L, manifest);
+        awaitCondition(() -> evaluator.getStats().getSamples() == 2);
+        verify(candidate, times(2)).forward(any(IValue.class));
+    }
+
+    /**
+     * Tests that samples are held back while user inference is running and only the latest one
+     * is shadowed once it has finished.
+     */
+    @Test
+    public void maybeShadow_waitsForUserRequests() throws Exception {
+        evaluator = newEvaluator(1f, 100);
+
+        evaluator.onRequestStarted();
+        evaluator.onRequestStarted();
+        evaluator.maybeShadow(image, input, ACTIVE_SCORES, 1L, manifest);
+        evaluator.maybeShadow(image, input, ACTIVE_SCORES, 2L, manifest);
+        evaluator.onRequestFinished();
+        verify(candidate, never()).forward(any(IValue.class));
+
+        evaluator.onRequestFinished();
+        awaitCondition(() -> evaluator.getStats().getSamples() == 1 && !evaluator.isShadowRunning());
+        verify(candidate, times(1)).forward(any(IValue.class));
+        assertEquals(2e-6, evaluator.getStats().getMeanActiveMillis(), 1e-9);
+    }
+
+    /**
+     * Tests that an agreeing candidate is promoted: its file and sidecar replace the active ones,
+     * the resource manager serves it together with its own manifest without reloading, and the
+     * promotion listener runs.
+     */
+    @Test
+    public void promote_replacesActiveFilesAndSwapsModel() throws Exception {
+        String candidateJson = manifestJson(2, "A", "B").replace("Alpha", "Alpha v2");
+        write(new File(folder.getRoot(), "candidate.json"), candidateJson);
+        AtomicInteger promotions = new AtomicInteger();
+        evaluator = newEvaluator(1f, 1);
+        evaluator.setPromotionListener(promotions::incrementAndGet);
+
+        evaluator.maybeShadow(image, input, ACTIVE_SCORES, 1L, manifest);
+
+        awaitCondition(() -> promotions.get() == 1);
+        assertFalse(evaluator.hasCandidate());
+        assertFalse(candidateFile.exists());
+        assertFalse(new File(folder.getRoot(), "candidate.json").exists());
+        assertEquals("candidate", read(activeFile));
+        assertEquals(candidateJson, read(new File(folder.getRoot(), "model.json")));
+        ResourceManager.LoadedModel promoted = resourceManager.getModel();
+        assertSame(candidate, promoted.getModule());
+        assertEquals("Alpha v2", promoted.getManifest().getLabelName(0));
+        assertEquals(0, activeLoads.get());
+    }
+
+    /**
+     * Tests that the candidate is released at a critical trim level and reloaded on the next
+     * sampled request.
+     */
+    @Test
+    public void criticalTrim_releasesCandidateUntilNextSample() throws Exception {
+        AtomicInteger candidateLoads = new AtomicInteger();
+        evaluator = new ShadowEvaluator(resourceManager, candidateFile, activeFile, 1f, 100, 1f, file -> {
+            candidateLoads.incrementAndGet();
+            return candidate;
+        });
+        evaluator.loadCandidate();
+        awaitCondition(evaluator::hasCandidate);
+
+        evaluator.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+        assertFalse(evaluator.hasCandidate());
+
+        evaluator.maybeShadow(image, input, ACTIVE_SCORES, 1L, manifest);
+        awaitCondition(evaluator::hasCandidate);
+        assertEquals(2, candidateLoads.get());
+    }
+
+    /**
+     * Creates an evaluator for the mocked candidate and waits until the candidate is loaded.
+     *
+     * @param sampleRate fraction of requests that are shadowed
+     * @param minSamples number of agreeing runs before the candidate is promoted
+     * @return the evaluator
+     */
+    private ShadowEvaluator newEvaluator(float sampleRate, int minSamples) throws InterruptedException {
+        ShadowEvaluator shadowEvaluator = new ShadowEvaluator(resourceManager, candidateFile, activeFile,
+                sampleRate, minSamples, 1f, file -> candidate);
+        shadowEvaluator.loadCandidate();
+        awaitCondition(shadowEvaluator::hasCandidate);
+        return shadowEvaluator;
+    }
+
+    /**
+     * Waits for a condition set by the shadow thread.
+     *
+     * @param condition the condition to wait for
+     */
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for the shadow thread");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static String manifestJson(int inputSize, String... labelIds) {
+        StringBuilder labels = new StringBuilder();
+        for (String id : labelIds) {
+            labels.append(labels.length() == 0 ? "" : ", ")
+                    .append("{\"id\": \"").append(id).append("\", \"name\": \"").append(id.equals("A") ? "Alpha" : "Beta").append("\"}");
+        }
+        return "{\"input_shape\": [1, 3, " + inputSize + ", " + inputSize + "], \"mean\": [0, 0, 0], \"std\": [1, 1, 1],"
+                + " \"labels\": [" + labels + "]}";
+    }
+
+    private static void write(File file, String contents) throws IOException {
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static IValue scores(float... values) {
+        return IValue.from(Tensor.fromBlob(values, new long[]{1, values.length}));
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.cloudgazer;
+
+import org.junit.Test;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests the SkyFilter on the only real images in the repository and on generated
+ * scenes.
+ * The real set is small: the 14 sky photos bundled with the app and, as non-sky samples, the 2
+ * IDE screenshots from the README. The repository has no real non-sky photos, so how often the
+ * filter rejects foliage, interiors or night photos is not measured here. The generated scenes
+ * were written together with the colour rules that accept or reject them; they check that the
+ * rules behave as designed and are not evidence of the filter's accuracy.
+ */
+public class SkyFilterTest {
+
+    private static final int SIZE = SkyFilter.GRID_SIZE;
+
+    /**
+     * Measures the default threshold on the real images. The sky photos all score above 0.8 and
+     * the screenshots below 0.3, so no sky photo is rejected and both screenshots are.
+     */
+    @Test
+    public void evaluate_onRealImages_rejectsScreenshotsWithoutRejectingSkyPhotos() throws Exception {
+        List<int[]> images = new ArrayList<>();
+        List<Boolean> labels = new ArrayList<>();
+
+        List<File> photos = new ArrayList<>(Arrays.asList(new File("src/main/res/drawable-nodpi").listFiles()));
+        photos.add(new File("src/main/res/drawable-xhdpi/main_image.JPG"));
+        photos.add(new File("src/main/res/drawable-xhdpi/splash_image.JPG"));
+        for (File photo : photos) {
+            images.add(loadGrid(photo));
+            labels.add(true);
+        }
+        for (String screenshot : new String[]{"gradle.jpg", "local.jpg"}) {
+            images.add(loadGrid(new File("../images", screenshot)));
+            labels.add(false);
+        }
+
+        SkyFilter.Evaluation evaluation = evaluate(images, labels);
+
+        assertEquals(14, evaluation.skies);
+        assertEquals(evaluation.toString(), 0f, evaluation.falseRejectRate(), 0f);
+        assertEquals(evaluation.toString(), 2, evaluation.rejected);
+    }
+
+    /**
+     * Checks the colour rules against generated scenes of the sky and non-sky conditions they
+     * were designed for. The rates are computed on synthetic data only.
+     */
+    @Test
+    public void evaluate_onSyntheticScenes_followsColourRules() {
+        List<int[]> images = new ArrayList<>();
+        List<Boolean> labels = new ArrayList<>();
+
+        int[][] skies = {
+                scene(0xff606060, 0xff2a2a2a), // dark-grey overcast
+                scene(0xff4e5866, 0xff1e2a1a), // storm clouds over a field
+                scene(0xff5a5a5e, 0xff303030), // storm clouds over a street
+                scene(0xfff28c38, 0xff1a1410), // orange sunset over a silhouette
+                scene(0xffe85a3c, 0xff1a1410), // red sunset over a silhouette
+                scene(0xffe89a9a, 0xff2a2030), // pink dusk
+                scene(0xfff5c16c, 0xff3a3020), // golden hour
+                gradient(0xff5a4e8c, 0xfff28c38, 0xff1a1410), // sunset fading to dusk
+        };
+        for (int[] sky : skies) {
+            images.add(sky);
+            labels.add(true);
+        }
+        int[][] nonSkies = {
+                scene(0xff2e6b1f, 0xff4a3b22), // foliage over soil
+                scene(0xff8a5a3c, 0xff5c3a21), // wooden interior
+                scene(0xff101018, 0xff202020), // night
+                scene(0xffc0392b, 0xff7f8c8d), // red wall over pavement
+                scene(0xffb5651d, 0xff7f8c8d), // brick wall over pavement
+                scene(0xff323438, 0xff26282a), // dark UI theme
+        };
+        for (int[] nonSky : nonSkies) {
+            images.add(nonSky);
+            labels.add(false);
+        }
+
+        SkyFilter.Evaluation evaluation = evaluate(images, labels);
+
+        assertEquals(evaluation.toString(), 0f, evaluation.falseRejectRate(), 0f);
+        assertEquals(evaluation.toString(), nonSkies.length, evaluation.rejected);
+    }
+
+    /**
+     * Tests that clear blue sky and grey overcast both score as sky, and the lower half is ignored.
+     */
+    @Test
+    public void skyScore_countsBlueAndOvercastInUpperHalf() {
+        assertEquals(1f, SkyFilter.skyScore(scene(0xff4a90d9, 0xff2e6b1f), SIZE, SIZE), 0f);
+        assertEquals(1f, SkyFilter.skyScore(scene(0xffa0a4a8, 0xff2e6b1f), SIZE, SIZE), 0f);
+        assertEquals(0f, SkyFilter.skyScore(scene(0xff2e6b1f, 0xff4a90d9), SIZE, SIZE), 0f);
+    }
+
+    /**
+     * Tests that dark-grey overcast and sunset colours score as sky, while deep reds, browns and
+     * near-black greys don't.
+     */
+    @Test
+    public void skyScore_countsOvercastAndSunsetButNotWallsOrNight() {
+        assertEquals(1f, SkyFilter.skyScore(scene(0xff606060, 0xff2e6b1f), SIZE, SIZE), 0f);
+        assertEquals(1f, SkyFilter.skyScore(scene(0xfff28c38, 0xff2e6b1f), SIZE, SIZE), 0f);
+        assertEquals(0f, SkyFilter.skyScore(scene(0xffc0392b, 0xff2e6b1f), SIZE, SIZE), 0f);
+        assertEquals(0f, SkyFilter.skyScore(scene(0xffb5651d, 0xff2e6b1f), SIZE, SIZE), 0f);
+        assertEquals(0f, SkyFilter.skyScore(scene(0xff323438, 0xff2e6b1f), SIZE, SIZE), 0f);
+    }
+
+    /**
+     * Tests that the threshold decides acceptance and that rejections are counted.
+     */
+    @Test
+    public void accept_appliesThresholdAndTracksRejectionRate() {
+        SkyFilter filter = new SkyFilter(0.5f);
+        assertTrue(filter.accept(0.9f));
+        assertTrue(!filter.accept(0.1f));
+        assertEquals(0.5f, filter.getRejectionRate(), 1e-6f);
+    }
+
+    private static SkyFilter.Evaluation evaluate(List<int[]> images, List<Boolean> labels) {
+        boolean[] isSky = new boolean[labels.size()];
+        for (int i = 0; i < isSky.length; i++) {
+            isSky[i] = labels.get(i);
+        }
+        return SkyFilter.evaluate(SkyFilter.DEFAULT_THRESHOLD, images.toArray(new int[0][]), isSky);
+    }
+
+    private static int[] scene(int upper, int lower) {
+        int[] pixels = new int[SIZE * SIZE];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i < pixels.length / 2 ? upper : lower;
+        }
+        return pixels;
+    }
+
+    /**
+     * Builds an image whose upper half fades from one colour to another, over a plain lower half.
+     */
+    private static int[] gradient(int top, int horizon, int lower) {
+        int[] pixels = scene(top, lower);
+        int rows = SIZE / 2;
+        for (int y = 0; y < rows; y++) {
+            float t = (float) y / (rows - 1);
+            int colour = 0xff000000;
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int from = (top >> shift) & 0xff;
+                int to = (horizon >> shift) & 0xff;
+                colour |= Math.round(from + (to - from) * t) << shift;
+            }
+            for (int x = 0; x < SIZE; x++) {
+                pixels[y * SIZE + x] = colour;
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] loadGrid(File file) throws Exception {
+        BufferedImage source = ImageIO.read(file);
+        BufferedImage grid = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = grid.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        // Centre crop to a square, as the app does before inference.
+        int side = Math.min(source.getWidth(), source.getHeight());
+        int x = (source.getWidth() - side) / 2;
+        int y = (source.getHeight() - side) / 2;
+        graphics.drawImage(source, 0, 0, SIZE, SIZE, x, y, x + side, y + side, null);
+        graphics.dispose();
+        return grid.getRGB(0, 0, SIZE, SIZE, null, 0, SIZE);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.cloudgazer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests the ThermalGovernor with faked thermal and battery sources.
+ * It verifies that settings step down as the device heats up or runs low on battery, and recover as it cools.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {28})
+public class ThermalGovernorTest {
+
+    private int thermalStatus;
+    private int batteryPercent;
+    private boolean charging;
+    private List<ThermalGovernor.Tier> changes;
+    private ThermalGovernor governor;
+
+    /**
+     * Sets up a governor reading a cool, fully charged device.
+     */
+    @Before
+    public void setUp() {
+        thermalStatus = 0;
+        batteryPercent = 100;
+        charging = false;
+        changes = new ArrayList<>();
+        governor = new ThermalGovernor(() -> thermalStatus, new ThermalGovernor.BatterySource() {
+            @Override
+            public int getLevelPercent() {
+                return batteryPercent;
+            }
+
+            @Override
+            public boolean isCharging() {
+                return charging;
+            }
+        }, changes::add);
+    }
+
+    /**
+     * Tests that the input size steps down 224, 192, 160 as the device heats up and is restored as it cools.
+     */
+    @Test
+    public void update_stepsDownWhenHotAndRestoresWhenCool() {
+        assertEquals(224, governor.update().inputSize);
+
+        thermalStatus = ThermalGovernor.THERMAL_STATUS_MODERATE;
+        assertEquals(192, governor.update().inputSize);
+
+        thermalStatus = ThermalGovernor.THERMAL_STATUS_SEVERE;
+        ThermalGovernor.Tier hot = governor.update();
+        assertEquals(160, hot.inputSize);
+        assertEquals(1, hot.threads);
+        assertEquals(1, hot.batchSize);
+
+        thermalStatus = 0;
+        assertEquals(224, governor.update().inputSize);
+        assertEquals(3, changes.size());
+    }
+
+    /**
+     * Tests that the listener is only notified when the tier actually changes.
+     */
+    @Test
+    public void update_notifiesOnlyOnChange() {
+        governor.update();
+        governor.update();
+        assertTrue(changes.isEmpty());
+
+        thermalStatus = ThermalGovernor.THERMAL_STATUS_MODERATE;
+        governor.update();
+        governor.update();
+        assertEquals(1, changes.size());
+        assertEquals(192, governor.getTier().inputSize);
+    }
+
+    /**
+     * Tests that a low battery throttles a cool device unless it is charging.
+     */
+    @Test
+    public void targetTier_throttlesOnLowBatteryUnlessCharging() {
+        assertEquals(1, ThermalGovernor.targetTierIndex(0, 10, false));
+        assertEquals(0, ThermalGovernor.targetTierIndex(0, 10, true));
+        assertEquals(2, ThermalGovernor.targetTierIndex(ThermalGovernor.THERMAL_STATUS_SEVERE, 10, false));
+    }
+}
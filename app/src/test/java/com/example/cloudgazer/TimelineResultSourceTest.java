@@ -0,0 +1,56 @@
+package com.example.cloudgazer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests that the TimelineResultSource formats video timeline entries into pages.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {28})
+public class TimelineResultSourceTest {
+
+    private ModelManifest manifest;
+
+    @Before
+    public void setUp() throws Exception {
+        File assets = new File("src/main/assets");
+        String json = new String(Files.readAllBytes(new File(assets, "model.json").toPath()), StandardCharsets.UTF_8);
+        manifest = ModelManifest.parse(json, assets);
+    }
+
+    /**
+     * Tests that entries are formatted into timeline pages with the manifest labels.
+     */
+    @Test
+    public void getResult_formatsTimestampLabelAndProbability() {
+        TimelineResultSource source = new TimelineResultSource(manifest, null);
+        source.append(batch(61, 1));
+
+        assertEquals(1, source.size());
+        assertTrue(source.getResult(0).startsWith("1:01\nIt might be " + manifest.getLabelName(61 % 11) + " cloud"));
+        assertEquals(manifest.getDescription(61 % 11), source.getDescription(0));
+        assertFalse(source.hasThumbnails());
+    }
+
+    private static List<VideoClassifier.TimelineEntry> batch(int first, int count) {
+        List<VideoClassifier.TimelineEntry> entries = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            entries.add(new VideoClassifier.TimelineEntry(i * 1000L, i % 11, 0.5f));
+        }
+        return entries;
+    }
+}
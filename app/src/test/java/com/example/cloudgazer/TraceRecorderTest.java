@@ -0,0 +1,144 @@
+package com.example.cloudgazer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This class tests recording inference traces with TraceRecorder.
+ * It verifies the binary round trip, appending across sessions, the size cap and recovery from
+ * a session killed while writing.
+ */
+public class TraceRecorderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static InferenceTrace.Record record(float[] input, float[] output) {
+        Map<String, Long> stages = new LinkedHashMap<>();
+        stages.put(InferenceTrace.STAGE_PREPROCESS, 1_000_000L);
+        stages.put(InferenceTrace.STAGE_FORWARD, 4_000_000L);
+        return new InferenceTrace.Record(1234L, "model.ptl@1", stages, new long[]{1, 1, 2, 4}, input, output);
+    }
+
+    private static List<InferenceTrace.Record> readAll(File trace) throws Exception {
+        List<InferenceTrace.Record> records = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(trace.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            InferenceTrace.checkHeader(buffer);
+            InferenceTrace.Record record;
+            while ((record = InferenceTrace.read(buffer)) != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Tests that records are read back as written, including records appended by a later session.
+     */
+    @Test
+    public void record_roundTripsAcrossAppendedSessions() throws Exception {
+        File trace = new File(folder.getRoot(), "sessions.trace");
+        float[] input = {0.1f, 0.9f, 0.5f, 0.3f, 0f, 0f, 0f, 0f};
+        try (TraceRecorder recorder = new TraceRecorder(trace, 1 << 20)) {
+            assertTrue(recorder.record(record(input, Arrays.copyOf(input, 4))));
+        }
+        try (TraceRecorder recorder = new TraceRecorder(trace, 1 << 20)) {
+            assertTrue(recorder.record(record(input, new float[]{0.1f, 0.5f, 0.9f, 0.3f})));
+        }
+
+        List<InferenceTrace.Record> records = readAll(trace);
+
+        assertEquals(2, records.size());
+        assertEquals("model.ptl@1", records.get(0).modelId);
+        assertEquals(4_000_000L, (long) records.get(0).stageNanos.get(InferenceTrace.STAGE_FORWARD));
+        assertArrayEquals(new long[]{1, 1, 2, 4}, records.get(0).inputShape);
+        assertArrayEquals(input, records.get(0).input, 0f);
+        assertArrayEquals(new float[]{0.1f, 0.5f, 0.9f, 0.3f}, records.get(1).output, 0f);
+    }
+
+    /**
+     * Tests that records beyond the size cap are dropped and the trace stays readable.
+     */
+    @Test
+    public void record_dropsRecordsBeyondSizeCap() throws Exception {
+        File trace = new File(folder.getRoot(), "capped.trace");
+        float[] input = new float[1000];
+        InferenceTrace.Record large = record(input, new float[4]);
+        long cap = InferenceTrace.HEADER_BYTES + InferenceTrace.sizeOf(large) * 2L + 10;
+        try (TraceRecorder recorder = new TraceRecorder(trace, cap)) {
+            assertTrue(recorder.record(large));
+            assertTrue(recorder.record(large));
+            assertFalse(recorder.isFull());
+            assertFalse(recorder.record(large));
+            assertTrue(recorder.isFull());
+        }
+
+        assertTrue(trace.length() <= cap);
+        assertEquals(2, readAll(trace).size());
+    }
+
+    /**
+     * Tests that a record cut short by a killed session is dropped when the trace is reopened,
+     * so records appended afterwards stay readable.
+     */
+    @Test
+    public void record_truncatesPartialRecordBeforeAppending() throws Exception {
+        File trace = new File(folder.getRoot(), "killed.trace");
+        float[] input = new float[1000];
+        try (TraceRecorder recorder = new TraceRecorder(trace, 1 << 20)) {
+            recorder.record(record(input, new float[4]));
+            recorder.record(record(input, new float[4]));
+        }
+        try (RandomAccessFile file = new RandomAccessFile(trace, "rw")) {
+            file.setLength(file.length() - 500);
+        }
+        try (TraceRecorder recorder = new TraceRecorder(trace, 1 << 20)) {
+            recorder.record(record(input, new float[]{1f, 2f, 3f, 4f}));
+        }
+
+        assertEquals(InferenceTrace.HEADER_BYTES + 2L * InferenceTrace.sizeOf(record(input, new float[4])),
+                trace.length());
+        List<InferenceTrace.Record> records = readAll(trace);
+        assertEquals(2, records.size());
+        assertArrayEquals(new float[]{1f, 2f, 3f, 4f}, records.get(1).output, 0f);
+    }
+
+    /**
+     * Tests that a record whose fields don't add up to its length is reported as corrupt.
+     */
+    @Test
+    public void read_rejectsRecordWithInconsistentLength() {
+        InferenceTrace.Record original = record(new float[8], new float[4]);
+        ByteBuffer buffer = ByteBuffer.allocate(InferenceTrace.sizeOf(original) + 8);
+        InferenceTrace.write(buffer, original);
+        buffer.putLong(0L);
+        buffer.putInt(0, InferenceTrace.sizeOf(original) + 8);
+        buffer.flip();
+
+        try {
+            InferenceTrace.read(buffer);
+            fail("Expected the record to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("trailing bytes"));
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.cloudgazer;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This class tests the VideoClassifier pipeline with a generated image-sequence source.
+ * It verifies the produced timeline, the batch sizes, that the number of frames in flight stays bounded,
+ * that bad frames are skipped, that filtered frames skip the model and that classification can be cancelled.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {28})
+public class VideoClassifierTest {
+
+    /**
+     * An image sequence of generated frames, one every second, whose width encodes the expected class.
+     */
+    private static class ImageSequenceSource implements FrameSource {
+        private final int frameCount;
+        private final AtomicInteger decoded;
+        private final Set<Integer> corrupt = new HashSet<>();
+        private int index;
+        volatile boolean closed;
+
+        ImageSequenceSource(int frameCount, AtomicInteger decoded) {
+            this.frameCount = frameCount;
+            this.decoded = decoded;
+        }
+
+        @Override
+        public Frame next() throws IOException {
+            if (index == frameCount) {
+                return null;
+            }
+            if (corrupt.contains(index)) {
+                index++;
+                throw new IOException("corrupt frame");
+            }
+            decoded.incrementAndGet();
+            Bitmap bitmap = Bitmap.createBitmap(10 + index % 3, 10, Bitmap.Config.ARGB_8888);
+            return new Frame(1000L * index++, bitmap);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Tests that every frame appears in the timeline in order with its top-1 class,
+     * and that no batch exceeds the configured size.
+     */
+    @Test
+    public void classify_producesOrderedTimeline() throws Exception {
+        AtomicInteger decoded = new AtomicInteger();
+        AtomicInteger maxBatch = new AtomicInteger();
+        VideoClassifier classifier = new VideoClassifier(frame -> frame, batch -> {
+            maxBatch.set(Math.max(maxBatch.get(), batch.size()));
+            float[][] scores = new float[batch.size()][3];
+            for (int i = 0; i < batch.size(); i++) {
+                scores[i][batch.get(i).getWidth() - 10] = 5f;
+            }
+            return scores;
+        }, 4, 2);
+        ImageSequenceSource source = new ImageSequenceSource(25, decoded);
+
+        List<VideoClassifier.TimelineEntry> timeline = classifier.classify(source);
+
+        assertEquals(25, timeline.size());
+        for (int i = 0; i < timeline.size(); i++) {
+            assertEquals(1000L * i, timeline.get(i).timestampMs);
+            assertEquals(i % 3, timeline.get(i).classIndex);
+            assertTrue(timeline.get(i).probability > 0.9f);
+        }
+        assertTrue(maxBatch.get() <= 4);
+        assertTrue(source.closed);
+    }
+
+    /**
+     * Tests that the decoder never runs further ahead of inference than the queue allows.
+     */
+    @Test
+    public void classify_boundsFramesInFlight() throws Exception {
+        AtomicInteger decoded = new AtomicInteger();
+        AtomicInteger classified = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        VideoClassifier classifier = new VideoClassifier(frame -> frame, batch -> {
+            Thread.sleep(5);
+            maxInFlight.set(Math.max(maxInFlight.get(), decoded.get() - classified.get()));
+            classified.addAndGet(batch.size());
+            return new float[batch.size()][3];
+        }, 2, 3);
+
+        classifier.classify(new ImageSequenceSource(40, decoded));
+
+        // Queue capacity, the batch being classified and the frame the decoder holds while blocked.
+        assertTrue("In flight: " + maxInFlight.get(), maxInFlight.get() <= 3 + 2 + 1);
+    }
+
+    /**
+     * Tests that frames that can't be decoded are skipped and counted, and the rest of the video
+     * is still classified.
+     */
+    @Test
+    public void classify_skipsBadFrames() throws Exception {
+        VideoClassifier classifier = new VideoClassifier(frame -> frame,
+                batch -> new float[batch.size()][3], 2, 2);
+        ImageSequenceSource source = new ImageSequenceSource(10, new AtomicInteger());
+        source.corrupt.add(3);
+        source.corrupt.add(7);
+
+        List<VideoClassifier.TimelineEntry> timeline = classifier.classify(source);
+
+        assertEquals(8, timeline.size());
+        assertEquals(2, classifier.getSkippedFrameCount());
+        for (VideoClassifier.TimelineEntry entry : timeline) {
+            assertTrue(entry.timestampMs != 3000L && entry.timestampMs != 7000L);
+        }
+    }
+
+    /**
+     * Tests that frames dropped by the frame filter never reach the model or the timeline, and
+     * that the forward time they would have cost is reported as saved.
+     */
+    @Test
+    public void classify_skipsModelOnFilteredFrames() throws Exception {
+        AtomicInteger modelFrames = new AtomicInteger();
+        VideoClassifier classifier = new VideoClassifier(frame -> frame, batch -> {
+            Thread.sleep(10L * batch.size());
+            modelFrames.addAndGet(batch.size());
+            return new float[batch.size()][3];
+        }, 2, 2);
+        // Every third frame is 11 pixels wide; treat those as not showing the sky
+        classifier.setFrameFilter(frame -> frame.getWidth() != 11);
+
+        List<VideoClassifier.TimelineEntry> timeline = classifier.classify(new ImageSequenceSource(30, new AtomicInteger()));
+
+        assertEquals(20, timeline.size());
+        assertEquals(20, modelFrames.get());
+        assertEquals(10, classifier.getFilteredFrameCount());
+        for (VideoClassifier.TimelineEntry entry : timeline) {
+            assertTrue(entry.timestampMs % 3000L != 1000L);
+        }
+        // 10 filtered frames at no less than 10 ms of forward time each
+        assertTrue(String.valueOf(classifier.getFilterSavingNanos()),
+                classifier.getFilterSavingNanos() > 50_000_000L);
+    }
+
+    /**
+     * Tests that interrupting the calling thread stops classification, delivers no further
+     * entries and closes the source.
+     */
+    @Test
+    public void classify_stopsWhenInterrupted() throws Exception {
+        CountDownLatch firstBatch = new CountDownLatch(1);
+        AtomicInteger delivered = new AtomicInteger();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        VideoClassifier classifier = new VideoClassifier(frame -> frame, batch -> {
+            firstBatch.countDown();
+            Thread.sleep(20);
+            return new float[batch.size()][3];
+        }, 2, 2);
+        ImageSequenceSource source = new ImageSequenceSource(1000, new AtomicInteger());
+
+        Thread worker = new Thread(() -> {
+            try {
+                classifier.classify(source, entries -> delivered.addAndGet(entries.size()));
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        worker.start();
+        assertTrue(firstBatch.await(5, TimeUnit.SECONDS));
+        worker.interrupt();
+        worker.join(5000);
+
+        assertFalse(worker.isAlive());
+        assertTrue(String.valueOf(failure.get()), failure.get() instanceof InterruptedException);
+        assertTrue(delivered.get() < 1000);
+        assertTrue(source.closed);
+    }
+
+    /**
+     * Tests that a source failing on every frame is reported to the caller instead of producing
+     * an empty timeline.
+     */
+    @Test
+    public void classify_propagatesDecodeErrors() throws Exception {
+        VideoClassifier classifier = new VideoClassifier(frame -> frame,
+                batch -> new float[batch.size()][3], 2, 2);
+        FrameSource failing = new FrameSource() {
+            @Override
+            public Frame next() throws IOException {
+                throw new IOException("corrupt frame");
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        try {
+            classifier.classify(failing);
+            fail("Expected the decode error to be rethrown");
+        } catch (IOException e) {
+            assertEquals("corrupt frame", e.getMessage());
+        }
+    }
+}
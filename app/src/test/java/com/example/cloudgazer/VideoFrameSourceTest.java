@@ -0,0 +1,54 @@
+package com.example.cloudgazer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * This class tests how the VideoFrameSource chooses the frames it decodes.
+ * It verifies that each sample time is mapped to its nearest keyframe, that keyframes shared by
+ * several sample times are decoded once and that the exact sample times are used without keyframes.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {28})
+public class VideoFrameSourceTest {
+
+    /**
+     * Tests that keyframes closer together than the sample interval are thinned out to the one
+     * nearest to each sample time, with the keyframe's own timestamp.
+     */
+    @Test
+    public void nearestKeyframes_picksKeyframeNearestToEachSampleTime() {
+        long[] keyframes = {0, 400_000, 900_000, 1_300_000, 2_100_000, 2_900_000};
+
+        long[] frames = VideoFrameSource.nearestKeyframes(keyframes, 3_000_000, 1_000_000);
+
+        // Samples at 0, 1, 2 and 3 s
+        assertArrayEquals(new long[]{0, 900_000, 2_100_000, 2_900_000}, frames);
+    }
+
+    /**
+     * Tests that keyframes further apart than the sample interval are decoded once, instead of
+     * once per sample time under the wrong timestamps.
+     */
+    @Test
+    public void nearestKeyframes_dropsDuplicatesOfSparseKeyframes() {
+        long[] keyframes = {0, 5_000_000, 10_000_000};
+
+        long[] frames = VideoFrameSource.nearestKeyframes(keyframes, 12_000_000, 1_000_000);
+
+        assertArrayEquals(new long[]{0, 5_000_000, 10_000_000}, frames);
+    }
+
+    /**
+     * Tests the sample times used when the keyframes of a video are unknown.
+     */
+    @Test
+    public void sampleTimes_includesStartAndLastFullInterval() {
+        assertArrayEquals(new long[]{0, 1_000_000, 2_000_000}, VideoFrameSource.sampleTimes(2_500_000, 1_000_000));
+        assertArrayEquals(new long[]{0}, VideoFrameSource.sampleTimes(0, 1_000_000));
+    }
+}
@@ -0,0 +1,19 @@
+// Plain Java code shared by the app and the host-side tools; no Android dependencies.
+plugins {
+    `java-library`
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+// PyTorch and org.json are provided at runtime: by pytorch_android and the platform in the app,
+// and by the jars below in host-side tools and tests.
+dependencies {
+    compileOnly(libs.pytorch.java.only)
+    compileOnly(libs.json)
+    testImplementation(libs.junit)
+    testImplementation(libs.pytorch.java.only)
+    testImplementation(libs.json)
+}
@@ -0,0 +1,239 @@
+package com.example.cloudgazer;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The binary format of inference traces, shared by {@code TraceRecorder} on the device and
+ * {@code TraceReplay} on the host. It has no Android dependencies so it runs on a plain JVM.
+ * <p>
+ * A trace starts with a header of the magic number and the format version. Each record then holds,
+ * in big-endian order: its length in bytes, the wall-clock time, the model id, the per-stage
+ * timings as name/nanoseconds pairs, the input tensor shape and data, and the output logits.
+ */
+public final class InferenceTrace {
+    public static final String STAGE_PREPROCESS = "preprocess";
+    public static final String STAGE_FORWARD = "forward";
+
+    static final int MAGIC = 0x43475452; // "CGTR"
+    static final int VERSION = 1;
+    public static final int HEADER_BYTES = 8;
+
+    private InferenceTrace() {
+    }
+
+    /**
+     * One recorded inference.
+     */
+    public static final class Record {
+        public final long timestampMs;
+        public final String modelId;
+        public final Map<String, Long> stageNanos;
+        public final long[] inputShape;
+        public final float[] input;
+        public final float[] output;
+
+        /**
+         * Constructor for the Record.
+         *
+         * @param timestampMs wall-clock time of the inference, in milliseconds
+         * @param modelId     identifies the model that produced the output
+         * @param stageNanos  duration of each pipeline stage, in pipeline order
+         * @param inputShape  the shape of the preprocessed input tensor
+         * @param input       the preprocessed input tensor data
+         * @param output      the raw output logits
+         */
+        public Record(long timestampMs, String modelId, Map<String, Long> stageNanos,
+                      long[] inputShape, float[] input, float[] output) {
+            this.timestampMs = timestampMs;
+            this.modelId = modelId;
+            this.stageNanos = stageNanos;
+            this.inputShape = inputShape;
+            this.input = input;
+            this.output = output;
+        }
+    }
+
+    /**
+     * Writes the header that starts every trace.
+     *
+     * @param buffer a buffer with at least {@link #HEADER_BYTES} bytes remaining
+     */
+    public static void writeHeader(ByteBuffer buffer) {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+    }
+
+    /**
+     * Reads and validates the header that starts every trace.
+     *
+     * @param buffer the trace contents, positioned at the start
+     * @throws IllegalArgumentException if the buffer isn't a trace of a supported version
+     */
+    public static void checkHeader(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not an inference trace");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported trace version " + version);
+        }
+    }
+
+    /**
+     * Returns the number of bytes the record takes in a trace, including its length prefix.
+     *
+     * @param record the record to measure
+     * @return the encoded size in bytes
+     */
+    public static int sizeOf(Record record) {
+        int size = Integer.BYTES + Long.BYTES + sizeOf(record.modelId) + Short.BYTES;
+        for (String stage : record.stageNanos.keySet()) {
+            size += sizeOf(stage) + Long.BYTES;
+        }
+        size += Byte.BYTES + record.inputShape.length * Long.BYTES;
+        size += Integer.BYTES + record.input.length * Float.BYTES;
+        size += Integer.BYTES + record.output.length * Float.BYTES;
+        return size;
+    }
+
+    private static int sizeOf(String text) {
+        return Short.BYTES + text.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Encodes a record at the buffer's position.
+     *
+     * @param buffer a buffer with at least {@link #sizeOf(Record)} bytes remaining
+     * @param record the record to encode
+     */
+    public static void write(ByteBuffer buffer, Record record) {
+        buffer.putInt(sizeOf(record));
+        buffer.putLong(record.timestampMs);
+        putString(buffer, record.modelId);
+        buffer.putShort((short) record.stageNanos.size());
+        for (Map.Entry<String, Long> stage : record.stageNanos.entrySet()) {
+            putString(buffer, stage.getKey());
+            buffer.putLong(stage.getValue());
+        }
+        buffer.put((byte) record.inputShape.length);
+        for (long dimension : record.inputShape) {
+            buffer.putLong(dimension);
+        }
+        putFloats(buffer, record.input);
+        putFloats(buffer, record.output);
+    }
+
+    /**
+     * Decodes the record at the buffer's position.
+     *
+     * @param buffer the trace contents, positioned at a record
+     * @return the record, or null if the buffer holds no complete record
+     * @throws IllegalArgumentException if the record is corrupt
+     */
+    public static Record read(ByteBuffer buffer) {
+        if (buffer.remaining() < Integer.BYTES) {
+            return null;
+        }
+        int start = buffer.position();
+        int length = buffer.getInt();
+        if (length < Integer.BYTES) {
+            throw new IllegalArgumentException("Corrupt trace record length " + length + " at byte " + start);
+        }
+        if (length - Integer.BYTES > buffer.remaining()) {
+            // A record cut short, e.g. by the app being killed mid-write.
+            buffer.position(buffer.limit());
+            return null;
+        }
+        // Decode within the record's own bytes, so a bad field can't read into the next record.
+        ByteBuffer body = buffer.slice();
+        body.limit(length - Integer.BYTES);
+        buffer.position(start + length);
+        try {
+            long timestampMs = body.getLong();
+            String modelId = getString(body);
+            int stageCount = body.getShort();
+            Map<String, Long> stageNanos = new LinkedHashMap<>();
+            for (int i = 0; i < stageCount; i++) {
+                stageNanos.put(getString(body), body.getLong());
+            }
+            long[] inputShape = new long[body.get()];
+            for (int i = 0; i < inputShape.length; i++) {
+                inputShape[i] = body.getLong();
+            }
+            float[] input = getFloats(body);
+            float[] output = getFloats(body);
+            if (body.hasRemaining()) {
+                throw new IllegalArgumentException("Trace record at byte " + start + " has "
+                        + body.remaining() + " trailing bytes");
+            }
+            return new Record(timestampMs, modelId, stageNanos, inputShape, input, output);
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IllegalArgumentException("Corrupt trace record at byte " + start, e);
+        }
+    }
+
+    /**
+     * Finds where the complete records of a trace end, by following the record lengths.
+     * Anything after that offset is a record cut short, e.g. by the app being killed while
+     * the trace was being written, and must be dropped before appending.
+     *
+     * @param channel the trace file, starting with a valid header
+     * @return the offset just after the last complete record
+     * @throws IOException if the file couldn't be read
+     */
+    public static long endOfCompleteRecords(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long end = HEADER_BYTES;
+        ByteBuffer prefix = ByteBuffer.allocate(Integer.BYTES);
+        while (size - end >= Integer.BYTES) {
+            prefix.clear();
+            while (prefix.hasRemaining()) {
+                if (channel.read(prefix, end + prefix.position()) < 0) {
+                    return end;
+                }
+            }
+            prefix.flip();
+            int length = prefix.getInt();
+            if (length < Integer.BYTES || length > size - end) {
+                break;
+            }
+            end += length;
+        }
+        return end;
+    }
+
+    private static void putString(ByteBuffer buffer, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putFloats(ByteBuffer buffer, float[] values) {
+        buffer.putInt(values.length);
+        buffer.asFloatBuffer().put(values);
+        buffer.position(buffer.position() + values.length * Float.BYTES);
+    }
+
+    private static float[] getFloats(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / Float.BYTES) {
+            throw new IllegalArgumentException("Corrupt float array of length " + count);
+        }
+        float[] values = new float[count];
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Float.BYTES);
+        return values;
+    }
+}
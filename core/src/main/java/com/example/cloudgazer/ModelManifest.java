@@ -0,0 +1,298 @@
+package com.example.cloudgazer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * ModelManifest describes how to feed a model and how to read its output. It is read from a JSON
+ * sidecar shipped next to the model, e.g. {@code model.json} for {@code model.ptl}, so a new model
+ * needs no code changes.
+ * <p>
+ * The sidecar holds the input shape, the normalization mean and std, and one entry per output
+ * class with its id, display name and the byte offset and length of its description. Everything
+ * except the descriptions is parsed once into arrays. Descriptions live in a separate UTF-8 blob
+ * that is memory-mapped the first time a description is displayed.
+ * <p>
+ * Models that return several named outputs from one forward pass list them under {@code heads},
+ * in the order of the output tuple or by dictionary key, each with a type that selects its
+ * post-processing. Without that list the model has a single classification head.
+ */
+public class ModelManifest {
+    /**
+     * Head type of the cloud genus classifier: raw class scores, labelled by the manifest.
+     */
+    public static final String HEAD_CLASSIFICATION = "classification";
+    /**
+     * Head type of a single logit read as a probability, e.g. precipitation likelihood.
+     */
+    public static final String HEAD_PROBABILITY = "probability";
+    /**
+     * Head type of a single value between 0 and 1, e.g. sky cover fraction.
+     */
+    public static final String HEAD_FRACTION = "fraction";
+    static final String DEFAULT_HEAD = "genus";
+
+    private final int inputSize;
+    private final float[] mean;
+    private final float[] std;
+    private final String[] labelIds;
+    private final String[] labelNames;
+    private final int[] descriptionOffsets;
+    private final int[] descriptionLengths;
+    private final File descriptionsFile;
+    private final String[] headNames;
+    private final String[] headTypes;
+    private final String[] headTitles;
+    private MappedByteBuffer descriptions;
+
+    private ModelManifest(int inputSize, float[] mean, float[] std, String[] labelIds, String[] labelNames,
+                          int[] descriptionOffsets, int[] descriptionLengths, File descriptionsFile,
+                          String[] headNames, String[] headTypes, String[] headTitles) {
+        this.inputSize = inputSize;
+        this.mean = mean;
+        this.std = std;
+        this.labelIds = labelIds;
+        this.labelNames = labelNames;
+        this.descriptionOffsets = descriptionOffsets;
+        this.descriptionLengths = descriptionLengths;
+        this.descriptionsFile = descriptionsFile;
+        this.headNames = headNames;
+        this.headTypes = headTypes;
+        this.headTitles = headTitles;
+    }
+
+    /**
+     * Returns the name of the sidecar that describes the given model file.
+     *
+     * @param modelFileName the file name of the model, e.g. model.ptl
+     * @return the file name of its manifest, e.g. model.json
+     */
+    public static String sidecarName(String modelFileName) {
+        int dot = modelFileName.lastIndexOf('.');
+        return (dot < 0 ? modelFileName : modelFileName.substring(0, dot)) + ".json";
+    }
+
+    /**
+     * Reads and parses a manifest sidecar. The descriptions blob is looked up next to it.
+     *
+     * @param sidecar the sidecar file, e.g. model.json
+     * @return the parsed manifest
+     * @throws IOException   if the sidecar couldn't be read
+     * @throws JSONException if the sidecar is malformed
+     */
+    public static ModelManifest load(File sidecar) throws IOException, JSONException {
+        return parse(new String(Files.readAllBytes(sidecar.toPath()), StandardCharsets.UTF_8),
+                sidecar.getParentFile());
+    }
+
+    /**
+     * Parses a manifest.
+     *
+     * @param json         the contents of the sidecar
+     * @param directory    the directory the descriptions blob named in the sidecar is read from
+     * @return the parsed manifest
+     * @throws JSONException if the sidecar is malformed
+     */
+    public static ModelManifest parse(String json, File directory) throws JSONException {
+        JSONObject root = new JSONObject(json);
+
+        // Input shape is [batch, channels, height, width]; images are cropped to a square.
+        JSONArray shape = root.getJSONArray("input_shape");
+        int inputSize = shape.getInt(shape.length() - 1);
+
+        JSONArray labels = root.getJSONArray("labels");
+        String[] labelIds = new String[labels.length()];
+        String[] labelNames = new String[labels.length()];
+        int[] descriptionOffsets = new int[labels.length()];
+        int[] descriptionLengths = new int[labels.length()];
+        for (int i = 0; i < labels.length(); i++) {
+            JSONObject label = labels.getJSONObject(i);
+            labelIds[i] = label.getString("id");
+            labelNames[i] = label.getString("name");
+            JSONArray description = label.optJSONArray("description");
+            if (description != null) {
+                descriptionOffsets[i] = description.getInt(0);
+                descriptionLengths[i] = description.getInt(1);
+            }
+        }
+
+        JSONArray heads = root.optJSONArray("heads");
+        int headCount = heads == null ? 1 : heads.length();
+        String[] headNames = new String[headCount];
+        String[] headTypes = new String[headCount];
+        String[] headTitles = new String[headCount];
+        if (heads == null) {
+            headNames[0] = DEFAULT_HEAD;
+            headTypes[0] = HEAD_CLASSIFICATION;
+            headTitles[0] = "Cloud genus";
+        } else {
+            for (int i = 0; i < headCount; i++) {
+                JSONObject head = heads.getJSONObject(i);
+                headNames[i] = head.getString("name");
+                headTypes[i] = head.getString("type");
+                headTitles[i] = head.optString("title", headNames[i]);
+            }
+        }
+
+        String descriptionsName = root.optString("descriptions", null);
+        return new ModelManifest(inputSize, toFloats(root.getJSONArray("mean")), toFloats(root.getJSONArray("std")),
+                labelIds, labelNames, descriptionOffsets, descriptionLengths,
+                descriptionsName == null ? null : new File(directory, descriptionsName),
+                headNames, headTypes, headTitles);
+    }
+
+    private static float[] toFloats(JSONArray array) throws JSONException {
+        float[] values = new float[array.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) array.getDouble(i);
+        }
+        return values;
+    }
+
+    /**
+     * @return the width and height of the square model input, in pixels
+     */
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * @return the per-channel RGB mean used to normalize the input
+     */
+    public float[] getMean() {
+        return mean;
+    }
+
+    /**
+     * @return the per-channel RGB standard deviation used to normalize the input
+     */
+    public float[] getStd() {
+        return std;
+    }
+
+    /**
+     * @return the number of classes the model outputs
+     */
+    public int getLabelCount() {
+        return labelNames.length;
+    }
+
+    /**
+     * Returns the short id of a class, e.g. Cu.
+     *
+     * @param index the index of the class in the model output
+     * @return the id, or null if the index is out of range
+     */
+    public String getLabelId(int index) {
+        return index >= 0 && index < labelIds.length ? labelIds[index] : null;
+    }
+
+    /**
+     * Returns the display name of a class, e.g. Cumulus.
+     *
+     * @param index the index of the class in the model output
+     * @return the name, or null if the index is out of range
+     */
+    public String getLabelName(int index) {
+        return index >= 0 && index < labelNames.length ? labelNames[index] : null;
+    }
+
+    /**
+     * @return the number of outputs the model returns from one forward pass
+     */
+    public int getHeadCount() {
+        return headNames.length;
+    }
+
+    /**
+     * @param index the position of the head in the model output
+     * @return the name of the head, also its key when the model returns a dictionary
+     */
+    public String getHeadName(int index) {
+        return headNames[index];
+    }
+
+    /**
+     * @param index the position of the head in the model output
+     * @return one of the HEAD_* types, selecting how the head is post-processed
+     */
+    public String getHeadType(int index) {
+        return headTypes[index];
+    }
+
+    /**
+     * @param index the position of the head in the model output
+     * @return the title shown for the head in the results
+     */
+    public String getHeadTitle(int index) {
+        return headTitles[index];
+    }
+
+    /**
+     * Returns the head whose classes are labelled by this manifest: the first classification head.
+     *
+     * @return the name of the cloud genus head
+     */
+    public String getPrimaryHead() {
+        for (int i = 0; i < headNames.length; i++) {
+            if (HEAD_CLASSIFICATION.equals(headTypes[i])) {
+                return headNames[i];
+            }
+        }
+        return headNames[0];
+    }
+
+    /**
+     * @return the blob the descriptions are read from, or null if the model ships none
+     */
+    public File getDescriptionsFile() {
+        return descriptionsFile;
+    }
+
+    /**
+     * Returns the description of a class. The descriptions blob is mapped on first use.
+     *
+     * @param index the index of the class in the model output
+     * @return the description, or null if the class has none, the blob couldn't be read or the
+     * sidecar points outside of it
+     */
+    public String getDescription(int index) {
+        if (index < 0 || index >= descriptionLengths.length || descriptionLengths[index] <= 0) {
+            return null;
+        }
+        ByteBuffer blob = mapDescriptions();
+        int offset = descriptionOffsets[index];
+        if (blob == null || offset < 0 || (long) offset + descriptionLengths[index] > blob.limit()) {
+            // The blob doesn't match its sidecar, e.g. one of them is stale or truncated.
+            return null;
+        }
+        byte[] bytes = new byte[descriptionLengths[index]];
+        // Read through a duplicate so concurrent callers don't share a position.
+        ByteBuffer view = blob.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private synchronized ByteBuffer mapDescriptions() {
+        if (descriptions == null && descriptionsFile != null) {
+            try (RandomAccessFile file = new RandomAccessFile(descriptionsFile, "r");
+                 FileChannel channel = file.getChannel()) {
+                descriptions = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return descriptions;
+    }
+}
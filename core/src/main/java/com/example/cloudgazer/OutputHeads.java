@@ -0,0 +1,107 @@
+package com.example.cloudgazer;
+
+import org.pytorch.IValue;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * OutputHeads splits the output of a shared-backbone model into its heads and post-processes each
+ * one for display.
+ * <p>
+ * A model may return a single tensor, a tuple of tensors in the order the manifest lists its
+ * heads, or a dictionary keyed by head name. Only the heads the current screen shows are copied
+ * out of the output; the others are skipped, so e.g. the video timeline pays nothing for the
+ * weather heads beyond the forward pass they share with the cloud genus. It is shared with the
+ * host-side replay tool, so replays read the genus head the same way the app does.
+ */
+public final class OutputHeads {
+
+    private OutputHeads() {
+    }
+
+    /**
+     * Extracts the wanted heads from a model output.
+     *
+     * @param output   the value returned by the forward pass
+     * @param manifest describes the heads of the model
+     * @param wanted   names of the heads to extract, or null for all of them
+     * @return the values of each wanted head present in the output, in manifest order
+     */
+    public static Map<String, float[]> extract(IValue output, ModelManifest manifest, Set<String> wanted) {
+        Map<String, float[]> heads = new LinkedHashMap<>();
+        if (output.isTensor()) {
+            String name = manifest.getPrimaryHead();
+            if (wanted == null || wanted.contains(name)) {
+                heads.put(name, output.toTensor().getDataAsFloatArray());
+            }
+            return heads;
+        }
+
+        IValue[] tuple = output.isTuple() ? output.toTuple() : null;
+        Map<String, IValue> dictionary = output.isDictStringKey() ? output.toDictStringKey() : null;
+        if (tuple == null && dictionary == null) {
+            throw new IllegalArgumentException("Unsupported model output");
+        }
+        for (int i = 0; i < manifest.getHeadCount(); i++) {
+            String name = manifest.getHeadName(i);
+            if (wanted != null && !wanted.contains(name)) {
+                continue;
+            }
+            IValue head = tuple != null ? (i < tuple.length ? tuple[i] : null) : dictionary.get(name);
+            if (head != null && head.isTensor()) {
+                heads.put(name, head.toTensor().getDataAsFloatArray());
+            }
+        }
+        return heads;
+    }
+
+    /**
+     * Extracts only the cloud genus scores from a model output.
+     *
+     * @param output   the value returned by the forward pass
+     * @param manifest describes the heads of the model
+     * @return the raw genus scores, or null if the output has no genus head
+     */
+    public static float[] primary(IValue output, ModelManifest manifest) {
+        String name = manifest.getPrimaryHead();
+        return extract(output, manifest, Collections.singleton(name)).get(name);
+    }
+
+    /**
+     * Turns the value of a non-classification head into a result page.
+     *
+     * @param type   the head type, one of the ModelManifest HEAD_* types
+     * @param title  the title of the head
+     * @param values the raw values of the head
+     * @return the result text and its description, or null if the head type isn't displayable
+     */
+    public static String[] format(String type, String title, float[] values) {
+        if (values.length == 0) {
+            return null;
+        }
+        if (ModelManifest.HEAD_PROBABILITY.equals(type)) {
+            float probability = sigmoid(values[0]);
+            return new String[]{
+                    title + "\n" + String.format("%.0f", probability * 100) + "%\n",
+                    "Estimated from the same photo as the cloud type."};
+        }
+        if (ModelManifest.HEAD_FRACTION.equals(type)) {
+            float fraction = Math.max(0f, Math.min(1f, values[0]));
+            return new String[]{
+                    title + "\n" + String.format("%.0f", fraction * 100) + "%\n",
+                    "About " + Math.round(fraction * 8) + " of 8 oktas of the sky are covered."};
+        }
+        return null;
+    }
+
+    /**
+     * @param logit a raw score
+     * @return the logistic function of the score, between 0 and 1
+     */
+    public static float sigmoid(float logit) {
+        return (float) (1 / (1 + Math.exp(-logit)));
+    }
+}
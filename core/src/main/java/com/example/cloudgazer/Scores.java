@@ -0,0 +1,69 @@
+package com.example.cloudgazer;
+
+import java.util.Arrays;
+
+/**
+ * Helpers for interpreting the raw scores produced by the model, shared by the app and the
+ * host-side replay tool.
+ */
+public final class Scores {
+
+    private Scores() {
+    }
+
+    /**
+     * Returns the index of the highest score.
+     *
+     * @param scores the raw scores from a model output
+     * @return the index of the top-1 class, or -1 if there are no scores
+     */
+    public static int argmax(float[] scores) {
+        int best = -1;
+        for (int i = 0; i < scores.length; i++) {
+            if (best < 0 || scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the indices of the k highest scores, highest first.
+     *
+     * @param scores the raw scores from a model output
+     * @param k      the number of indices to return; capped at the number of scores
+     * @return the indices of the top-k classes in descending order of score
+     */
+    public static int[] topK(float[] scores, int k) {
+        Integer[] indices = new Integer[scores.length];
+        for (int i = 0; i < scores.length; i++) {
+            indices[i] = i;
+        }
+        Arrays.sort(indices, (a, b) -> Float.compare(scores[b], scores[a]));
+
+        int[] top = new int[Math.min(k, scores.length)];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = indices[i];
+        }
+        return top;
+    }
+
+    /**
+     * Applies the Softmax function to the raw output scores to convert them into probabilities.
+     *
+     * @param scores the raw scores from the model output
+     * @return an array of probabilities derived from the scores
+     */
+    public static float[] softmax(float[] scores) {
+        float[] expScores = new float[scores.length];
+        float sumExpScores = 0.0f;
+        for (int i = 0; i < scores.length; i++) {
+            expScores[i] = (float) Math.exp(scores[i]);
+            sumExpScores += expScores[i];
+        }
+        for (int i = 0; i < scores.length; i++) {
+            expScores[i] = expScores[i] / sumExpScores;
+        }
+        return expScores;
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.cloudgazer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests parsing of the ModelManifest sidecar and lazy reading of descriptions.
+ * It also checks the manifest shipped with the bundled model.
+ */
+public class ModelManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests that input size, normalization, labels and descriptions are read from a sidecar.
+     */
+    @Test
+    public void parse_readsShapeNormalizationAndLabels() throws Exception {
+        Files.write(new File(folder.getRoot(), "blob.bin").toPath(), "FirstSecond".getBytes(StandardCharsets.UTF_8));
+        String json = "{\"input_shape\": [1, 3, 160, 160], \"mean\": [0.5, 0.5, 0.5], \"std\": [0.25, 0.25, 0.25],"
+                + " \"descriptions\": \"blob.bin\", \"labels\": ["
+                + " {\"id\": \"A\", \"name\": \"Alpha\", \"description\": [0, 5]},"
+                + " {\"id\": \"B\", \"name\": \"Beta\", \"description\": [5, 6]},"
+                + " {\"id\": \"C\", \"name\": \"Gamma\"}]}";
+
+        ModelManifest manifest = ModelManifest.parse(json, folder.getRoot());
+
+        assertEquals(160, manifest.getInputSize());
+        assertArrayEquals(new float[]{0.5f, 0.5f, 0.5f}, manifest.getMean(), 1e-6f);
+        assertArrayEquals(new float[]{0.25f, 0.25f, 0.25f}, manifest.getStd(), 1e-6f);
+        assertEquals(3, manifest.getLabelCount());
+        assertEquals("B", manifest.getLabelId(1));
+        assertEquals("Beta", manifest.getLabelName(1));
+        assertEquals("First", manifest.getDescription(0));
+        assertEquals("Second", manifest.getDescription(1));
+        assertNull(manifest.getDescription(2));
+        assertNull(manifest.getLabelName(3));
+    }
+
+    /**
+     * Tests that descriptions pointing outside the blob, as with a stale or truncated blob, are
+     * reported as missing instead of throwing.
+     */
+    @Test
+    public void getDescription_returnsNullOutsideBlob() throws Exception {
+        Files.write(new File(folder.getRoot(), "blob.bin").toPath(), "First".getBytes(StandardCharsets.UTF_8));
+        String json = "{\"input_shape\": [1, 3, 160, 160], \"mean\": [0, 0, 0], \"std\": [1, 1, 1],"
+                + " \"descriptions\": \"blob.bin\", \"labels\": ["
+                + " {\"id\": \"A\", \"name\": \"Alpha\", \"description\": [0, 5]},"
+                + " {\"id\": \"B\", \"name\": \"Beta\", \"description\": [5, 6]},"
+                + " {\"id\": \"C\", \"name\": \"Gamma\", \"description\": [2, 4]},"
+                + " {\"id\": \"D\", \"name\": \"Delta\", \"description\": [-1, 2]},"
+                + " {\"id\": \"E\", \"name\": \"Epsilon\", \"description\": [2147483647, 1]}]}";
+
+        ModelManifest manifest = ModelManifest.parse(json, folder.getRoot());
+
+        assertEquals("First", manifest.getDescription(0));
+        assertNull(manifest.getDescription(1));
+        assertNull(manifest.getDescription(2));
+        assertNull(manifest.getDescription(3));
+        assertNull(manifest.getDescription(4));
+    }
+
+    /**
+     * Tests that declared heads are read in output order and that a manifest without heads has a
+     * single genus classification head.
+     */
+    @Test
+    public void parse_readsHeadsOrDefaultsToGenus() throws Exception {
+        String labels = "\"input_shape\": [1, 3, 224, 224], \"mean\": [0, 0, 0], \"std\": [1, 1, 1],"
+                + " \"labels\": [{\"id\": \"A\", \"name\": \"Alpha\"}]";
+
+        ModelManifest single = ModelManifest.parse("{" + labels + "}", folder.getRoot());
+        assertEquals(1, single.getHeadCount());
+        assertEquals(ModelManifest.DEFAULT_HEAD, single.getPrimaryHead());
+        assertEquals(ModelManifest.HEAD_CLASSIFICATION, single.getHeadType(0));
+
+        ModelManifest multi = ModelManifest.parse("{" + labels + ", \"heads\": ["
+                + " {\"name\": \"rain\", \"type\": \"probability\", \"title\": \"Precipitation likelihood\"},"
+                + " {\"name\": \"clouds\", \"type\": \"classification\"}]}", folder.getRoot());
+        assertEquals(2, multi.getHeadCount());
+        assertEquals("clouds", multi.getPrimaryHead());
+        assertEquals(ModelManifest.HEAD_PROBABILITY, multi.getHeadType(0));
+        assertEquals("Precipitation likelihood", multi.getHeadTitle(0));
+        assertEquals("clouds", multi.getHeadTitle(1));
+    }
+
+    /**
+     * Tests that the bundled manifest matches the classes of the bundled model, in sorted id order.
+     */
+    @Test
+    public void bundledManifest_describesEveryCloudType() throws Exception {
+        File assets = new File("../app/src/main/assets");
+        String json = new String(Files.readAllBytes(new File(assets, "model.json").toPath()), StandardCharsets.UTF_8);
+
+        ModelManifest manifest = ModelManifest.parse(json, assets);
+
+        assertEquals(224, manifest.getInputSize());
+        assertEquals(11, manifest.getLabelCount());
+        for (int i = 1; i < manifest.getLabelCount(); i++) {
+            assertTrue(manifest.getLabelId(i - 1).compareTo(manifest.getLabelId(i)) < 0);
+        }
+        assertEquals("Contrail", manifest.getLabelName(6));
+        assertTrue(manifest.getDescription(6).startsWith("Contrails are clouds"));
+        assertTrue(manifest.getDescription(10).endsWith("nearly white."));
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.cloudgazer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pytorch.IValue;
+import org.pytorch.Tensor;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests how OutputHeads routes single, tuple and dictionary model outputs to their
+ * heads, and how weather heads are formatted for the results pager.
+ */
+public class OutputHeadsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ModelManifest manifest;
+
+    @Before
+    public void setUp() throws Exception {
+        manifest = ModelManifest.parse("{\"input_shape\": [1, 3, 224, 224], \"mean\": [0, 0, 0], \"std\": [1, 1, 1],"
+                + " \"labels\": [{\"id\": \"A\", \"name\": \"Alpha\"}, {\"id\": \"B\", \"name\": \"Beta\"}],"
+                + " \"heads\": [{\"name\": \"genus\", \"type\": \"classification\"},"
+                + " {\"name\": \"precipitation\", \"type\": \"probability\"},"
+                + " {\"name\": \"sky_cover\", \"type\": \"fraction\"}]}", folder.getRoot());
+    }
+
+    /**
+     * Tests that a tuple output is split by position, in manifest order.
+     */
+    @Test
+    public void extract_splitsTupleByPosition() {
+        IValue output = IValue.tupleFrom(IValue.from(tensor(1f, 2f)), IValue.from(tensor(0.5f)), IValue.from(tensor(0.75f)));
+
+        Map<String, float[]> heads = OutputHeads.extract(output, manifest, null);
+
+        assertEquals(3, heads.size());
+        assertArrayEquals(new float[]{1f, 2f}, heads.get("genus"), 0f);
+        assertArrayEquals(new float[]{0.5f}, heads.get("precipitation"), 0f);
+        assertArrayEquals(new float[]{0.75f}, heads.get("sky_cover"), 0f);
+    }
+
+    /**
+     * Tests that a dictionary output is split by key and that unwanted heads are skipped.
+     */
+    @Test
+    public void extract_splitsDictionaryByNameAndSkipsUnwantedHeads() {
+        Map<String, IValue> dictionary = new HashMap<>();
+        dictionary.put("sky_cover", IValue.from(tensor(0.25f)));
+        dictionary.put("genus", IValue.from(tensor(3f, 1f)));
+
+        Map<String, float[]> heads = OutputHeads.extract(IValue.dictStringKeyFrom(dictionary), manifest,
+                Collections.singleton("sky_cover"));
+
+        assertEquals(Collections.singleton("sky_cover"), heads.keySet());
+        assertArrayEquals(new float[]{3f, 1f}, OutputHeads.primary(IValue.dictStringKeyFrom(dictionary), manifest), 0f);
+    }
+
+    /**
+     * Tests that the genus scores are found by name when the manifest lists another head first,
+     * in tuple and dictionary outputs alike.
+     */
+    @Test
+    public void primary_findsGenusHeadListedAfterOtherHeads() throws Exception {
+        ModelManifest rainFirst = ModelManifest.parse("{\"input_shape\": [1, 3, 224, 224], \"mean\": [0, 0, 0],"
+                + " \"std\": [1, 1, 1], \"labels\": [{\"id\": \"A\", \"name\": \"Alpha\"}],"
+                + " \"heads\": [{\"name\": \"rain\", \"type\": \"probability\"},"
+                + " {\"name\": \"clouds\", \"type\": \"classification\"}]}", folder.getRoot());
+        Map<String, IValue> dictionary = new HashMap<>();
+        dictionary.put("rain", IValue.from(tensor(0.5f)));
+        dictionary.put("clouds", IValue.from(tensor(2f, 7f)));
+
+        assertArrayEquals(new float[]{2f, 7f},
+                OutputHeads.primary(IValue.tupleFrom(IValue.from(tensor(0.5f)), IValue.from(tensor(2f, 7f))), rainFirst), 0f);
+        assertArrayEquals(new float[]{2f, 7f},
+                OutputHeads.primary(IValue.dictStringKeyFrom(dictionary), rainFirst), 0f);
+    }
+
+    /**
+     * Tests that a single tensor output is the genus head, as with the bundled model.
+     */
+    @Test
+    public void extract_treatsSingleTensorAsGenus() {
+        Map<String, float[]> heads = OutputHeads.extract(IValue.from(tensor(1f, 2f)), manifest, null);
+
+        assertEquals(Collections.singleton("genus"), heads.keySet());
+        assertArrayEquals(new float[]{1f, 2f}, heads.get("genus"), 0f);
+        assertTrue(OutputHeads.extract(IValue.from(tensor(1f, 2f)), manifest,
+                Collections.singleton("precipitation")).isEmpty());
+    }
+
+    /**
+     * Tests that probability heads go through a sigmoid and fraction heads are read as oktas.
+     */
+    @Test
+    public void format_routesByHeadType() {
+        String[] rain = OutputHeads.format(ModelManifest.HEAD_PROBABILITY, "Precipitation likelihood", new float[]{0f});
+        assertTrue(rain[0].startsWith("Precipitation likelihood\n50%"));
+
+        String[] cover = OutputHeads.format(ModelManifest.HEAD_FRACTION, "Sky cover", new float[]{0.75f});
+        assertTrue(cover[0].startsWith("Sky cover\n75%"));
+        assertTrue(cover[1].contains("6 of 8 oktas"));
+
+        assertNull(OutputHeads.format(ModelManifest.HEAD_CLASSIFICATION, "Genus", new float[]{1f}));
+        assertFalse(OutputHeads.sigmoid(-10f) > 0.001f);
+    }
+
+    private static Tensor tensor(float... values) {
+        return Tensor.fromBlob(values, new long[]{1, values.length});
+    }
+}
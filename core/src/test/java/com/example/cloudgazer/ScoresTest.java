@@ -0,0 +1,33 @@
+package com.example.cloudgazer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * This class tests the score helpers shared by the inference paths.
+ */
+public class ScoresTest {
+
+    /**
+     * Tests that argmax returns the index of the highest score, and -1 for no scores.
+     */
+    @Test
+    public void argmax_returnsIndexOfHighestScore() {
+        assertEquals(2, Scores.argmax(new float[]{0.1f, -3f, 4.5f, 4.4f}));
+        assertEquals(0, Scores.argmax(new float[]{1f}));
+        assertEquals(-1, Scores.argmax(new float[]{}));
+    }
+
+    /**
+     * Tests that topK returns the indices of the highest scores in descending order,
+     * capped at the number of scores.
+     */
+    @Test
+    public void topK_returnsHighestIndicesInOrder() {
+        float[] scores = {0.5f, 3f, -1f, 2f};
+        assertArrayEquals(new int[]{1, 3, 0}, Scores.topK(scores, 3));
+        assertArrayEquals(new int[]{1, 3, 0, 2}, Scores.topK(scores, 10));
+    }
+}
@@ -0,0 +1,29 @@
+// Host-side tool that replays inference traces recorded on a device, e.g.
+// ./gradlew :replay:run --args="inference.trace model.ptl" -Plibtorch=/path/to/libtorch
+plugins {
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+application {
+    mainClass.set("com.example.cloudgazer.TraceReplay")
+}
+
+dependencies {
+    implementation(project(":core"))
+    implementation(libs.pytorch.java.only)
+    implementation(libs.json)
+    testImplementation(libs.junit)
+}
+
+// pytorch_java_only loads its JNI library from the libtorch distribution.
+tasks.named<JavaExec>("run") {
+    val libtorch = project.findProperty("libtorch") as String?
+    if (libtorch != null) {
+        jvmArgs("-Djava.library.path=$libtorch/lib")
+    }
+}
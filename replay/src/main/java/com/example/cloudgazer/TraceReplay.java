@@ -0,0 +1,160 @@
+package com.example.cloudgazer;
+
+import org.pytorch.IValue;
+import org.pytorch.Module;
+import org.pytorch.Tensor;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TraceReplay feeds a trace recorded by {@code TraceRecorder} back through the inference pipeline
+ * and reports latency and output drift against what was recorded on the device.
+ * <p>
+ * It runs on the host JVM, so pipeline and model changes can be benchmarked and regression-tested
+ * against real user workloads. It lives in its own module, outside the APK, and runs the model
+ * with {@code org.pytorch:pytorch_java_only}, which needs the native libraries of a libtorch
+ * download. Pull a trace with {@code adb pull} and run:
+ * <pre>
+ * ./gradlew :replay:run --args="inference.trace model.ptl" -Plibtorch=/path/to/libtorch
+ * </pre>
+ */
+public final class TraceReplay {
+    // Number of top classes compared when looking for ranking changes, as shown in the results pager.
+    static final int RANKING_DEPTH = 3;
+
+    private TraceReplay() {
+    }
+
+    /**
+     * Runs the model on a recorded input.
+     */
+    public interface Backend {
+        /**
+         * @param shape the shape of the input tensor
+         * @param input the input tensor data
+         * @return the raw output logits
+         * @throws Exception if inference failed
+         */
+        float[] forward(long[] shape, float[] input) throws Exception;
+    }
+
+    /**
+     * Latency and drift measured over a replayed trace.
+     */
+    public static final class Report {
+        public final int records;
+        public final double recordedForwardMillis;
+        public final double medianForwardMillis;
+        public final double p95ForwardMillis;
+        public final double meanPostprocessMillis;
+        public final float maxDrift;
+        public final int rankingChanges;
+
+        Report(int records, double recordedForwardMillis, double medianForwardMillis, double p95ForwardMillis,
+               double meanPostprocessMillis, float maxDrift, int rankingChanges) {
+            this.records = records;
+            this.recordedForwardMillis = recordedForwardMillis;
+            this.medianForwardMillis = medianForwardMillis;
+            this.p95ForwardMillis = p95ForwardMillis;
+            this.meanPostprocessMillis = meanPostprocessMillis;
+            this.maxDrift = maxDrift;
+            this.rankingChanges = rankingChanges;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d records%n"
+                            + "forward: recorded mean %.2f ms, replay median %.2f ms, p95 %.2f ms%n"
+                            + "postprocess: mean %.3f ms%n"
+                            + "drift: max |logit delta| %.6f, top-%d ranking changed in %d records",
+                    records, recordedForwardMillis, medianForwardMillis, p95ForwardMillis,
+                    meanPostprocessMillis, maxDrift, RANKING_DEPTH, rankingChanges);
+        }
+    }
+
+    /**
+     * Replays every record of a trace through the backend and the post-processing stage.
+     *
+     * @param trace   the trace file
+     * @param backend runs the model under test
+     * @return latency and drift over the whole trace
+     * @throws Exception if the trace couldn't be read or inference failed
+     */
+    public static Report replay(File trace, Backend backend) throws Exception {
+        List<Long> forwardNanos = new ArrayList<>();
+        long recordedForwardNanos = 0;
+        long postprocessNanos = 0;
+        float maxDrift = 0f;
+        int rankingChanges = 0;
+
+        try (FileChannel channel = FileChannel.open(trace.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            InferenceTrace.checkHeader(buffer);
+            InferenceTrace.Record record;
+            while ((record = InferenceTrace.read(buffer)) != null) {
+                long start = System.nanoTime();
+                float[] output = backend.forward(record.inputShape, record.input);
+                long afterForward = System.nanoTime();
+                Scores.softmax(output);
+                int[] ranking = Scores.topK(output, RANKING_DEPTH);
+                postprocessNanos += System.nanoTime() - afterForward;
+                forwardNanos.add(afterForward - start);
+
+                Long recorded = record.stageNanos.get(InferenceTrace.STAGE_FORWARD);
+                recordedForwardNanos += recorded == null ? 0 : recorded;
+                for (int i = 0; i < Math.min(output.length, record.output.length); i++) {
+                    maxDrift = Math.max(maxDrift, Math.abs(output[i] - record.output[i]));
+                }
+                if (output.length != record.output.length
+                        || !Arrays.equals(ranking, Scores.topK(record.output, RANKING_DEPTH))) {
+                    rankingChanges++;
+                }
+            }
+        }
+
+        int records = forwardNanos.size();
+        if (records == 0) {
+            return new Report(0, 0, 0, 0, 0, 0f, 0);
+        }
+        long[] sorted = new long[records];
+        for (int i = 0; i < records; i++) {
+            sorted[i] = forwardNanos.get(i);
+        }
+        Arrays.sort(sorted);
+        return new Report(records, recordedForwardNanos / 1e6 / records, sorted[records / 2] / 1e6,
+                sorted[Math.min(records - 1, (int) Math.ceil(records * 0.95) - 1)] / 1e6,
+                postprocessNanos / 1e6 / records, maxDrift, rankingChanges);
+    }
+
+    /**
+     * Replays a trace against a TorchScript model and prints the report. The model's manifest
+     * sidecar, e.g. model.json next to model.ptl, tells which output head holds the genus scores.
+     *
+     * @param args the trace file and the model file
+     * @throws Exception if the trace or manifest couldn't be read or inference failed
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: TraceReplay <trace file> <model file>");
+            System.exit(2);
+        }
+        File modelFile = new File(args[1]);
+        ModelManifest manifest = ModelManifest.load(
+                new File(modelFile.getAbsoluteFile().getParentFile(), ModelManifest.sidecarName(modelFile.getName())));
+        Module model = Module.load(modelFile.getPath());
+        Report report = replay(new File(args[0]), (shape, input) -> {
+            float[] scores = OutputHeads.primary(model.forward(IValue.from(Tensor.fromBlob(input, shape))), manifest);
+            if (scores == null) {
+                throw new IllegalStateException("Model output has no " + manifest.getPrimaryHead() + " head");
+            }
+            return scores;
+        });
+        System.out.println(report);
+    }
+}
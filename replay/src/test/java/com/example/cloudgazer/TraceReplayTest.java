@@ -0,0 +1,92 @@
+package com.example.cloudgazer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * This class tests replaying inference traces with TraceReplay.
+ * It verifies that recorded timings are read back and that drift and ranking changes are reported.
+ */
+public class TraceReplayTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A backend whose logits are the first four input values, like a model that is an identity on them.
+     */
+    private static final TraceReplay.Backend FIRST_FOUR = (shape, input) -> Arrays.copyOf(input, 4);
+
+    private static final float[] INPUT = {0.1f, 0.9f, 0.5f, 0.3f, 0f, 0f, 0f, 0f};
+
+    private static InferenceTrace.Record record(float[] output) {
+        Map<String, Long> stages = new LinkedHashMap<>();
+        stages.put(InferenceTrace.STAGE_PREPROCESS, 1_000_000L);
+        stages.put(InferenceTrace.STAGE_FORWARD, 4_000_000L);
+        return new InferenceTrace.Record(1234L, "model.ptl@1", stages, new long[]{1, 1, 2, 4}, INPUT, output);
+    }
+
+    private File writeTrace(String name, InferenceTrace.Record... records) throws Exception {
+        int size = InferenceTrace.HEADER_BYTES;
+        for (InferenceTrace.Record record : records) {
+            size += InferenceTrace.sizeOf(record);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        InferenceTrace.writeHeader(buffer);
+        for (InferenceTrace.Record record : records) {
+            InferenceTrace.write(buffer, record);
+        }
+        File trace = new File(folder.getRoot(), name);
+        Files.write(trace.toPath(), buffer.array());
+        return trace;
+    }
+
+    /**
+     * Tests that a replay with the same model reports no drift, and that recorded timings are read back.
+     */
+    @Test
+    public void replay_reportsNoDriftForSameOutputs() throws Exception {
+        File trace = writeTrace("same.trace", record(Arrays.copyOf(INPUT, 4)), record(Arrays.copyOf(INPUT, 4)));
+
+        TraceReplay.Report report = TraceReplay.replay(trace, FIRST_FOUR);
+
+        assertEquals(2, report.records);
+        assertEquals(4.0, report.recordedForwardMillis, 1e-9);
+        assertEquals(0f, report.maxDrift, 0f);
+        assertEquals(0, report.rankingChanges);
+    }
+
+    /**
+     * Tests that drift and ranking changes against the recorded outputs are reported.
+     */
+    @Test
+    public void replay_reportsDriftAndRankingChanges() throws Exception {
+        // The second record was produced by an older model that ranked class 2 above class 1.
+        File trace = writeTrace("drift.trace", record(Arrays.copyOf(INPUT, 4)),
+                record(new float[]{0.1f, 0.5f, 0.9f, 0.3f}));
+
+        TraceReplay.Report report = TraceReplay.replay(trace, FIRST_FOUR);
+
+        assertEquals(2, report.records);
+        assertEquals(0.4f, report.maxDrift, 1e-6f);
+        assertEquals(1, report.rankingChanges);
+    }
+
+    /**
+     * Tests that an empty trace yields an empty report.
+     */
+    @Test
+    public void replay_handlesEmptyTrace() throws Exception {
+        assertEquals(0, TraceReplay.replay(writeTrace("empty.trace"), FIRST_FOUR).records);
+    }
+}
@@ -21,3 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "Cloud Gazer"
 include(":app")
+include(":core")
+include(":replay")